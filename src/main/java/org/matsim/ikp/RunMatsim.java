@@ -18,6 +18,7 @@
  * *********************************************************************** */
 package org.matsim.ikp;
 
+import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.contrib.otfvis.OTFVisLiveModule;
 import org.matsim.core.config.Config;
@@ -31,14 +32,30 @@ import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.vis.otfvis.OTFVisConfigGroup;
 
+import java.awt.GraphicsEnvironment;
+import java.util.Arrays;
+
 /**
  * @author nagel
  *
  */
 public class RunMatsim{
+	private static final Logger log = Logger.getLogger( RunMatsim.class );
+
+	/**
+	 * Command line flag for batch runs: no live visualizer and no snapshots for it. Runs are also headless when
+	 * there is no display, e.g. on cluster nodes and build servers.
+	 */
+	public static final String HEADLESS = "--headless";
 
 	public static void main(String[] args) {
 
+		boolean headless = GraphicsEnvironment.isHeadless();
+		if ( args!=null && Arrays.asList( args ).contains( HEADLESS ) ){
+			headless = true;
+			args = Arrays.stream( args ).filter( arg -> !HEADLESS.equals( arg ) ).toArray( String[]::new );
+		}
+
 		Config config;
 		if ( args==null || args.length==0 || args[0]==null ){
 			config = ConfigUtils.loadConfig( "scenarios/equil/config.xml" );
@@ -48,7 +65,9 @@ public class RunMatsim{
 		config.controler().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
 
 		config.qsim().setTrafficDynamics( TrafficDynamics.kinematicWaves );
-		config.qsim().setSnapshotStyle( SnapshotStyle.kinematicWaves );
+		if ( !headless ){
+			config.qsim().setSnapshotStyle( SnapshotStyle.kinematicWaves );
+		}
 
 		// possibly modify config here
 		
@@ -64,7 +83,11 @@ public class RunMatsim{
 		
 		// possibly modify controler here
 
-		controler.addOverridingModule( new OTFVisLiveModule() ) ;
+		if ( headless ){
+			log.info( "Running headless, without OTFVis" );
+		} else {
+			controler.addOverridingModule( new OTFVisLiveModule() ) ;
+		}
 
 		
 		// ---
@@ -0,0 +1,67 @@
+package org.matsim.ikp.analysis;
+
+/** @author: davidwedekind */
+
+public enum BinaryEventType {
+
+    /**
+     * Event types stored in binary events files. The code is what is written to the file, so existing codes must not
+     * change. For every type it is fixed which id the agent column and the reference column hold.
+     */
+
+    ACTIVITY_END(0, IdKind.PERSON, IdKind.LINK),
+    PERSON_DEPARTURE(1, IdKind.PERSON, IdKind.LINK),
+    PERSON_ENTERS_VEHICLE(2, IdKind.PERSON, IdKind.VEHICLE),
+    VEHICLE_ENTERS_TRAFFIC(3, IdKind.VEHICLE, IdKind.LINK),
+    LINK_LEAVE(4, IdKind.VEHICLE, IdKind.LINK),
+    LINK_ENTER(5, IdKind.VEHICLE, IdKind.LINK),
+    VEHICLE_LEAVES_TRAFFIC(6, IdKind.VEHICLE, IdKind.LINK),
+    PERSON_LEAVES_VEHICLE(7, IdKind.PERSON, IdKind.VEHICLE),
+    PERSON_ARRIVAL(8, IdKind.PERSON, IdKind.LINK),
+    ACTIVITY_START(9, IdKind.PERSON, IdKind.LINK),
+    PERSON_STUCK(10, IdKind.PERSON, IdKind.LINK);
+
+    private static final BinaryEventType[] BY_CODE = new BinaryEventType[values().length];
+
+    static {
+        for (BinaryEventType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final byte code;
+    private final IdKind agent;
+    private final IdKind reference;
+
+    BinaryEventType(int code, IdKind agent, IdKind reference) {
+        this.code = (byte) code;
+        this.agent = agent;
+        this.reference = reference;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public IdKind getAgentKind() {
+        return agent;
+    }
+
+    public IdKind getReferenceKind() {
+        return reference;
+    }
+
+    public static BinaryEventType fromCode(byte code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("Unknown event type code " + code);
+        }
+        return BY_CODE[code];
+    }
+
+
+    public enum IdKind {
+        PERSON,
+        VEHICLE,
+        LINK
+    }
+}
@@ -0,0 +1,85 @@
+package org.matsim.ikp.analysis;
+
+import com.google.inject.Inject;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.groups.ControlerConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.events.algorithms.EventWriterXML;
+
+import java.nio.file.Paths;
+
+/** @author: davidwedekind */
+
+public final class BinaryEventsModule extends AbstractModule {
+
+    /**
+     * Writes ITERS/it.n/[runId.]n.events.bin in every iteration in which the controler writes its events, i.e. every
+     * controler.writeEventsInterval iterations and in the last one.
+     *
+     * If the binary events replace the xml events, the controler must not write xml events itself (see
+     * StationAnalysisModule.prepareConfig); the xml events of the last iteration are then written here, so that the
+     * run still ends with output_events.xml.gz. Otherwise both files exist side by side.
+     */
+
+    private final boolean replacesXml;
+
+    public BinaryEventsModule(boolean replacesXml) {
+        this.replacesXml = replacesXml;
+    }
+
+    @Override
+    public void install() {
+        addControlerListenerBinding().toInstance(new BinaryEventsControlerListener(replacesXml));
+    }
+
+
+    static final class BinaryEventsControlerListener implements IterationStartsListener, IterationEndsListener {
+        @Inject private EventsManager eventsManager;
+        @Inject private OutputDirectoryHierarchy controlerIO;
+        @Inject private ControlerConfigGroup controlerConfig;
+
+        private final boolean replacesXml;
+        private BinaryEventsWriter writer;
+        private EventWriterXML xmlWriter;
+
+        BinaryEventsControlerListener(boolean replacesXml) {
+            this.replacesXml = replacesXml;
+        }
+
+        @Override
+        public void notifyIterationStarts(IterationStartsEvent event) {
+            int iteration = event.getIteration();
+            int interval = controlerConfig.getWriteEventsInterval();
+            boolean lastIteration = iteration == controlerConfig.getLastIteration();
+            if ((interval > 0 && iteration % interval == 0) || lastIteration) {
+                writer = new BinaryEventsWriter(Paths.get(controlerIO.getIterationFilename(iteration, BinaryEventsWriter.FILE_NAME)));
+                eventsManager.addHandler(writer);
+            }
+            if (replacesXml && lastIteration) {
+                // copied to output_events.xml.gz at the end of the run
+                xmlWriter = new EventWriterXML(controlerIO.getIterationFilename(iteration, Controler.DefaultFiles.events));
+                eventsManager.addHandler(xmlWriter);
+            }
+        }
+
+        @Override
+        public void notifyIterationEnds(IterationEndsEvent event) {
+            if (writer != null) {
+                eventsManager.removeHandler(writer);
+                writer.close();
+                writer = null;
+            }
+            if (xmlWriter != null) {
+                eventsManager.removeHandler(xmlWriter);
+                xmlWriter.closeFile();
+                xmlWriter = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.matsim.ikp.analysis;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.ikp.analysis.BinaryEventType.IdKind;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** @author: davidwedekind */
+
+public final class BinaryEventsReader implements Closeable {
+
+    /**
+     * Reads files written by BinaryEventsWriter block by block. A block is handed out as primitive arrays, which are
+     * reused for the next block, so scanning a file allocates nothing per event. Agent and reference columns hold the
+     * Id.index() of the writing JVM; use the name lookups of this reader to turn them into ids.
+     */
+
+    private final Path path;
+    private final DataInputStream in;
+    private final Inflater inflater = new Inflater();
+    private final Block block = new Block();
+    private final String[][] names = new String[IdKind.values().length][];
+
+    private byte[] compressed = new byte[0];
+    private byte[] raw = new byte[0];
+
+    public BinaryEventsReader(Path path) throws IOException {
+        this.path = path;
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+        for (IdKind kind : IdKind.values()) {
+            names[kind.ordinal()] = new String[0];
+        }
+        try {
+            if (in.readInt() != BinaryEventsWriter.MAGIC) {
+                throw new IllegalArgumentException(path + " is not a binary events file");
+            }
+            int version = in.readInt();
+            if (version != BinaryEventsWriter.VERSION) {
+                throw new IllegalArgumentException(String.format("%s has version %d, expected %d", path, version, BinaryEventsWriter.VERSION));
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads all blocks of the file and hands them to the handler. The block must not be kept after the handler returns.
+     *
+     * @return the reader, whose name lookups contain all ids of the file
+     */
+    public static BinaryEventsReader read(Path path, Consumer<Block> handler) {
+        try (BinaryEventsReader reader = new BinaryEventsReader(path)) {
+            for (Block block = reader.next(); block != null; block = reader.next()) {
+                handler.accept(block);
+            }
+            return reader;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the next block, or null if the file has been read completely
+     */
+    public Block next() throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int compressedLength = in.readInt();
+        if (compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        if (raw.length < length) {
+            raw = new byte[length];
+        }
+        in.readFully(compressed, 0, compressedLength);
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                inflated += inflater.inflate(raw, inflated, length - inflated);
+            }
+            if (inflated != length) {
+                throw new IOException(String.format("%s: block is truncated, %d of %d bytes", path, inflated, length));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(path + ": block is corrupt", e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(raw, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        int size = buffer.getInt();
+        block.ensureCapacity(size);
+        block.size = size;
+        buffer.asDoubleBuffer().get(block.times, 0, size);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        buffer.get(block.types, 0, size);
+        buffer.asIntBuffer().get(block.agents, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().get(block.references, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+
+        for (IdKind kind : IdKind.values()) {
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int index = buffer.getInt();
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                String[] known = names[kind.ordinal()];
+                if (index >= known.length) {
+                    known = names[kind.ordinal()] = Arrays.copyOf(known, Math.max(index + 1, known.length * 2));
+                }
+                known[index] = new String(name, StandardCharsets.UTF_8);
+            }
+        }
+        return block;
+    }
+
+    public String getName(IdKind kind, int index) {
+        String[] known = names[kind.ordinal()];
+        return index >= 0 && index < known.length ? known[index] : null;
+    }
+
+    public Id<Person> getPersonId(int index) {
+        String name = getName(IdKind.PERSON, index);
+        return name == null ? null : Id.createPersonId(name);
+    }
+
+    public Id<Vehicle> getVehicleId(int index) {
+        String name = getName(IdKind.VEHICLE, index);
+        return name == null ? null : Id.createVehicleId(name);
+    }
+
+    public Id<Link> getLinkId(int index) {
+        String name = getName(IdKind.LINK, index);
+        return name == null ? null : Id.createLinkId(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+
+    /**
+     * Events of one block; only the first size entries of the arrays are valid.
+     */
+    public static final class Block {
+        private int size;
+        private double[] times = new double[0];
+        private byte[] types = new byte[0];
+        private int[] agents = new int[0];
+        private int[] references = new int[0];
+
+        private void ensureCapacity(int capacity) {
+            if (times.length < capacity) {
+                times = new double[capacity];
+                types = new byte[capacity];
+                agents = new int[capacity];
+                references = new int[capacity];
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double[] getTimes() {
+            return times;
+        }
+
+        /** codes of BinaryEventType */
+        public byte[] getTypes() {
+            return types;
+        }
+
+        public int[] getAgents() {
+            return agents;
+        }
+
+        public int[] getReferences() {
+            return references;
+        }
+    }
+}
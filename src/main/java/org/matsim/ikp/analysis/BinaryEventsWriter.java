@@ -0,0 +1,273 @@
+package org.matsim.ikp.analysis;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
+import org.matsim.api.core.v01.events.handler.ActivityStartEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonEntersVehicleEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonLeavesVehicleEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonStuckEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.ikp.analysis.BinaryEventType.IdKind;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/** @author: davidwedekind */
+
+public final class BinaryEventsWriter implements ActivityEndEventHandler, PersonDepartureEventHandler,
+        PersonEntersVehicleEventHandler, VehicleEntersTrafficEventHandler, LinkLeaveEventHandler, LinkEnterEventHandler,
+        VehicleLeavesTrafficEventHandler, PersonLeavesVehicleEventHandler, PersonArrivalEventHandler,
+        ActivityStartEventHandler, PersonStuckEventHandler, AutoCloseable {
+
+    /**
+     * Writes the events needed for pedestrian flow analysis to a compact binary file instead of xml.
+     *
+     * Events are collected in blocks of BLOCK_SIZE. A block stores its events column by column - time (double),
+     * type code (byte), agent (int) and reference (int), see BinaryEventType - followed by the names of the ids that
+     * appear for the first time, and is compressed as a whole. Ids are stored as their Id.index(); the names let
+     * BinaryEventsReader map them back in another JVM.
+     *
+     * File layout: MAGIC, VERSION, then per block the raw and the compressed length and the compressed bytes.
+     * All numbers in a block are little endian.
+     */
+
+    private static final Logger log = Logger.getLogger(BinaryEventsWriter.class);
+
+    public static final String FILE_NAME = "events.bin";
+    static final int MAGIC = 0x4d455642;
+    static final int VERSION = 1;
+
+    public static int BLOCK_SIZE = 65_536;
+    public static int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+    private final Path path;
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+
+    private final double[] times;
+    private final byte[] types;
+    private final int[] agents;
+    private final int[] references;
+    private int size = 0;
+
+    // ids already written to the file and ids whose names go into the current block, per IdKind
+    private final BitSet[] known = new BitSet[IdKind.values().length];
+    private final List<List<Id<?>>> newIds = new ArrayList<>();
+
+    private ByteBuffer raw = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] compressed = new byte[0];
+    private long events = 0;
+    private long bytes = 0;
+
+    public BinaryEventsWriter(Path path) {
+        this.path = path;
+        this.times = new double[BLOCK_SIZE];
+        this.types = new byte[BLOCK_SIZE];
+        this.agents = new int[BLOCK_SIZE];
+        this.references = new int[BLOCK_SIZE];
+        for (IdKind kind : IdKind.values()) {
+            known[kind.ordinal()] = new BitSet();
+            newIds.add(new ArrayList<>());
+        }
+
+        log.info("Writing binary events to " + path);
+        try {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void handleEvent(ActivityEndEvent event) {
+        add(event.getTime(), BinaryEventType.ACTIVITY_END, event.getPersonId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(PersonDepartureEvent event) {
+        add(event.getTime(), BinaryEventType.PERSON_DEPARTURE, event.getPersonId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(PersonEntersVehicleEvent event) {
+        add(event.getTime(), BinaryEventType.PERSON_ENTERS_VEHICLE, event.getPersonId(), event.getVehicleId());
+    }
+
+    @Override
+    public void handleEvent(VehicleEntersTrafficEvent event) {
+        add(event.getTime(), BinaryEventType.VEHICLE_ENTERS_TRAFFIC, event.getVehicleId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
+        add(event.getTime(), BinaryEventType.LINK_LEAVE, event.getVehicleId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(LinkEnterEvent event) {
+        add(event.getTime(), BinaryEventType.LINK_ENTER, event.getVehicleId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(VehicleLeavesTrafficEvent event) {
+        add(event.getTime(), BinaryEventType.VEHICLE_LEAVES_TRAFFIC, event.getVehicleId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(PersonLeavesVehicleEvent event) {
+        add(event.getTime(), BinaryEventType.PERSON_LEAVES_VEHICLE, event.getPersonId(), event.getVehicleId());
+    }
+
+    @Override
+    public void handleEvent(PersonArrivalEvent event) {
+        add(event.getTime(), BinaryEventType.PERSON_ARRIVAL, event.getPersonId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(ActivityStartEvent event) {
+        add(event.getTime(), BinaryEventType.ACTIVITY_START, event.getPersonId(), event.getLinkId());
+    }
+
+    @Override
+    public void handleEvent(PersonStuckEvent event) {
+        add(event.getTime(), BinaryEventType.PERSON_STUCK, event.getPersonId(), event.getLinkId());
+    }
+
+    private void add(double time, BinaryEventType type, Id<?> agent, Id<?> reference) {
+        times[size] = time;
+        types[size] = type.getCode();
+        agents[size] = index(type.getAgentKind(), agent);
+        references[size] = index(type.getReferenceKind(), reference);
+        size++;
+        if (size == BLOCK_SIZE) {
+            flush();
+        }
+    }
+
+    // -1 stands for a missing id, e.g. the link of a stuck agent that has not departed yet
+    private int index(IdKind kind, Id<?> id) {
+        if (id == null) {
+            return -1;
+        }
+        int index = id.index();
+        BitSet seen = known[kind.ordinal()];
+        if (!seen.get(index)) {
+            seen.set(index);
+            newIds.get(kind.ordinal()).add(id);
+        }
+        return index;
+    }
+
+    private void flush() {
+        if (size == 0) {
+            return;
+        }
+        List<byte[]> names = new ArrayList<>();
+        int capacity = 4 + size * (Double.BYTES + 1 + 2 * Integer.BYTES);
+        for (List<Id<?>> ids : newIds) {
+            capacity += Integer.BYTES;
+            for (Id<?> id : ids) {
+                byte[] name = id.toString().getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                capacity += 2 * Integer.BYTES + name.length;
+            }
+        }
+        if (raw.capacity() < capacity) {
+            raw = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        raw.clear();
+
+        // columns
+        raw.putInt(size);
+        raw.asDoubleBuffer().put(times, 0, size);
+        raw.position(raw.position() + size * Double.BYTES);
+        raw.put(types, 0, size);
+        raw.asIntBuffer().put(agents, 0, size);
+        raw.position(raw.position() + size * Integer.BYTES);
+        raw.asIntBuffer().put(references, 0, size);
+        raw.position(raw.position() + size * Integer.BYTES);
+
+        // names of the new ids
+        int name = 0;
+        for (List<Id<?>> ids : newIds) {
+            raw.putInt(ids.size());
+            for (Id<?> id : ids) {
+                raw.putInt(id.index());
+                raw.putInt(names.get(name).length);
+                raw.put(names.get(name++));
+            }
+            ids.clear();
+        }
+
+        writeBlock(raw.position());
+        events += size;
+        size = 0;
+    }
+
+    private void writeBlock(int length) {
+        if (compressed.length < length + 64) {
+            compressed = new byte[length + length / 8 + 64];
+        }
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        try {
+            out.writeInt(length);
+            out.writeInt(compressedLength);
+            out.write(compressed, 0, compressedLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bytes += 8 + compressedLength;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        deflater.end();
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info(String.format("Wrote %d events to %s (%d bytes)", events, path, bytes));
+    }
+}
@@ -0,0 +1,402 @@
+package org.matsim.ikp.analysis;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.ikp.network.NetworkIndex;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** @author: davidwedekind */
+
+public final class CongestionHotspotDetector implements LinkEnterEventHandler, LinkLeaveEventHandler,
+        VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler, AutoCloseable {
+
+    /**
+     * Finds the worst bottlenecks among the stairs and escalators of a station while the simulation runs, and writes
+     * the TOP_K links by queue length and by spillback duration every SNAPSHOT_INTERVAL simulated seconds.
+     *
+     * - The queue of a link are the pedestrians that are on it longer than its free flow travel time, i.e. that wait
+     *   to leave it. Links are assumed to be FIFO, so the entry times of a link are kept in a ring buffer ordered by
+     *   time and the queue is found by binary search.
+     * - A link spills back while the pedestrians on it fill its storage capacity (as in the QSim: length * lanes /
+     *   EFFECTIVE_CELL_SIZE, with PEDESTRIAN_PCE per pedestrian). Spillback durations add up over the iteration.
+     *
+     * Both rankings are indexed max heaps that are updated with every event on a link, so a snapshot only refreshes
+     * the links that currently have a queue or spill back and reads the top of the heaps; nothing is scanned in full.
+     * Links of the stairway facilities of FruinLevelOfService are tracked; networks without linkType attributes are
+     * tracked completely.
+     */
+
+    private static final Logger log = Logger.getLogger(CongestionHotspotDetector.class);
+
+    public static final String FILE_NAME = "congestion_hotspots.csv.gz";
+
+    public static int TOP_K = 20;
+    public static double SNAPSHOT_INTERVAL = 60.; // in s
+    public static double MAXIMUM_VELOCITY = 1.3; // in m/s, of the pedestrian vehicle type
+    public static double PEDESTRIAN_PCE = 1. / 14.;
+    public static double EFFECTIVE_CELL_SIZE = 7.5; // in m
+
+    private static final String QUEUE = "queue";
+    private static final String SPILLBACK = "spillback";
+
+    private final NetworkIndex index;
+    private final boolean[] tracked;
+    private final double[] travelTimes;
+    private final double[] storageCapacities;
+
+    private final int[] occupancy;
+    // entry times of the pedestrians that entered the link over LinkEnter, in time order
+    private final double[][] entryTimes;
+    private final int[] entryHead;
+    private final int[] entryCount;
+    // 1 for vehicles whose entry time is in the ring buffer of their current link
+    private byte[] vehicleInRing = new byte[0];
+
+    private final double[] spillbackSince;
+    private final double[] spillbackSeconds;
+
+    private final IndexedMaxHeap queueHeap;
+    private final IndexedMaxHeap spillbackHeap;
+    // links whose queue may grow without events: those with entries in their ring buffer
+    private final DenseSet queuedLinks;
+    private final DenseSet spilledLinks;
+    private final int[] top;
+
+    private BufferedWriter writer;
+    private double nextSnapshot;
+
+    public CongestionHotspotDetector(Network network) {
+        this(NetworkIndex.of(network));
+    }
+
+    public CongestionHotspotDetector(NetworkIndex index) {
+        this.index = index;
+        int links = index.getNumberOfLinks();
+        this.tracked = new boolean[links];
+        this.travelTimes = new double[links];
+        this.storageCapacities = new double[links];
+
+        boolean typed = false;
+        for (int i = 0; i < links; i++) {
+            typed |= index.getLink(i).getAttributes().getAttribute("linkType") != null;
+        }
+        int trackedLinks = 0;
+        for (int i = 0; i < links; i++) {
+            Link link = index.getLink(i);
+            tracked[i] = !typed || FruinLevelOfService.Facility.of(link.getAttributes().getAttribute("linkType")) == FruinLevelOfService.Facility.STAIRWAY;
+            travelTimes[i] = link.getLength() / Math.min(link.getFreespeed(), MAXIMUM_VELOCITY);
+            storageCapacities[i] = Math.max(1., link.getLength() * link.getNumberOfLanes() / EFFECTIVE_CELL_SIZE / PEDESTRIAN_PCE);
+            if (tracked[i]) {
+                trackedLinks++;
+            }
+        }
+
+        this.occupancy = new int[links];
+        this.entryTimes = new double[links][];
+        this.entryHead = new int[links];
+        this.entryCount = new int[links];
+        this.spillbackSince = new double[links];
+        this.spillbackSeconds = new double[links];
+        this.queueHeap = new IndexedMaxHeap(links);
+        this.spillbackHeap = new IndexedMaxHeap(links);
+        this.queuedLinks = new DenseSet(links);
+        this.spilledLinks = new DenseSet(links);
+        this.top = new int[TOP_K];
+        log.info(String.format("Tracking congestion on %d of %d links", trackedLinks, links));
+    }
+
+    /**
+     * Starts a new iteration writing to file; ends the previous one, if any.
+     */
+    public void start(String file) {
+        close();
+        Arrays.fill(occupancy, 0);
+        Arrays.fill(entryCount, 0);
+        Arrays.fill(entryHead, 0);
+        Arrays.fill(vehicleInRing, (byte) 0);
+        Arrays.fill(spillbackSince, Double.NaN);
+        Arrays.fill(spillbackSeconds, 0.);
+        queueHeap.clear();
+        spillbackHeap.clear();
+        queuedLinks.clear();
+        spilledLinks.clear();
+        nextSnapshot = SNAPSHOT_INTERVAL;
+
+        writer = IOUtils.getBufferedWriter(file);
+        try {
+            writer.write("time;metric;rank;linkId;linkType;value");
+            writer.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void handleEvent(LinkEnterEvent event) {
+        int link = trackedLink(event.getLinkId(), event.getTime());
+        if (link < 0) {
+            return;
+        }
+        pushEntry(link, event.getTime());
+        setVehicleInRing(event.getVehicleId(), (byte) 1);
+        occupancy[link]++;
+        update(link, event.getTime());
+    }
+
+    @Override
+    public void handleEvent(VehicleEntersTrafficEvent event) {
+        int link = trackedLink(event.getLinkId(), event.getTime());
+        if (link < 0) {
+            return;
+        }
+        // departing pedestrians start at the end of the link and do not queue
+        setVehicleInRing(event.getVehicleId(), (byte) 0);
+        occupancy[link]++;
+        update(link, event.getTime());
+    }
+
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
+        leave(event.getLinkId(), event.getVehicleId(), event.getTime());
+    }
+
+    @Override
+    public void handleEvent(VehicleLeavesTrafficEvent event) {
+        leave(event.getLinkId(), event.getVehicleId(), event.getTime());
+    }
+
+    private void leave(Id<Link> linkId, Id<Vehicle> vehicleId, double time) {
+        int link = trackedLink(linkId, time);
+        if (link < 0) {
+            return;
+        }
+        int vehicle = vehicleId.index();
+        if (vehicle < vehicleInRing.length && vehicleInRing[vehicle] == 1) {
+            // FIFO: the pedestrian leaving is the one who entered first
+            entryHead[link] = (entryHead[link] + 1) % entryTimes[link].length;
+            entryCount[link]--;
+            vehicleInRing[vehicle] = 0;
+        }
+        occupancy[link]--;
+        update(link, time);
+    }
+
+    private int trackedLink(Id<Link> linkId, double time) {
+        if (writer == null) {
+            return -1;
+        }
+        snapshotUntil(time);
+        int link = index.getLinkIndex(linkId);
+        return link != NetworkIndex.NOT_IN_NETWORK && tracked[link] ? link : -1;
+    }
+
+    private void pushEntry(int link, double time) {
+        double[] ring = entryTimes[link];
+        if (ring == null) {
+            ring = entryTimes[link] = new double[16];
+        } else if (entryCount[link] == ring.length) {
+            double[] grown = new double[ring.length * 2];
+            for (int i = 0; i < entryCount[link]; i++) {
+                grown[i] = ring[(entryHead[link] + i) % ring.length];
+            }
+            ring = entryTimes[link] = grown;
+            entryHead[link] = 0;
+        }
+        ring[(entryHead[link] + entryCount[link]) % ring.length] = time;
+        entryCount[link]++;
+    }
+
+    private void setVehicleInRing(Id<Vehicle> vehicleId, byte inRing) {
+        int vehicle = vehicleId.index();
+        if (vehicle >= vehicleInRing.length) {
+            vehicleInRing = Arrays.copyOf(vehicleInRing, Math.max(vehicle + 1, Math.max(1024, vehicleInRing.length * 2)));
+        }
+        vehicleInRing[vehicle] = inRing;
+    }
+
+    private void update(int link, double time) {
+        int queue = queueLength(link, time);
+        queueHeap.set(link, queue);
+        if (entryCount[link] > 0) {
+            queuedLinks.add(link);
+        } else {
+            queuedLinks.remove(link);
+        }
+
+        boolean spilled = occupancy[link] >= storageCapacities[link];
+        if (spilled && Double.isNaN(spillbackSince[link])) {
+            spillbackSince[link] = time;
+            spilledLinks.add(link);
+        } else if (!spilled && !Double.isNaN(spillbackSince[link])) {
+            spillbackSeconds[link] += time - spillbackSince[link];
+            spillbackSince[link] = Double.NaN;
+            spilledLinks.remove(link);
+        }
+        spillbackHeap.set(link, spillbackDuration(link, time));
+    }
+
+    // number of entries that have been on the link longer than its free flow travel time
+    private int queueLength(int link, double time) {
+        double[] ring = entryTimes[link];
+        int count = entryCount[link];
+        if (count == 0) {
+            return 0;
+        }
+        double latestQueuedEntry = time - travelTimes[link];
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ring[(entryHead[link] + mid) % ring.length] <= latestQueuedEntry) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private double spillbackDuration(int link, double time) {
+        double ongoing = Double.isNaN(spillbackSince[link]) ? 0. : time - spillbackSince[link];
+        return spillbackSeconds[link] + ongoing;
+    }
+
+    private void snapshotUntil(double time) {
+        while (time >= nextSnapshot) {
+            snapshot(nextSnapshot);
+            nextSnapshot += SNAPSHOT_INTERVAL;
+        }
+    }
+
+    private void snapshot(double time) {
+        // queues grow and spillbacks go on without events on the link
+        for (int i = 0; i < queuedLinks.size(); i++) {
+            int link = queuedLinks.get(i);
+            queueHeap.set(link, queueLength(link, time));
+        }
+        for (int i = 0; i < spilledLinks.size(); i++) {
+            int link = spilledLinks.get(i);
+            spillbackHeap.set(link, spillbackDuration(link, time));
+        }
+        write(time, QUEUE, queueHeap);
+        write(time, SPILLBACK, spillbackHeap);
+    }
+
+    private void write(double time, String metric, IndexedMaxHeap heap) {
+        int found = heap.top(TOP_K, top);
+        try {
+            for (int rank = 0; rank < found; rank++) {
+                Link link = index.getLink(top[rank]);
+                Object linkType = link.getAttributes().getAttribute("linkType");
+                writer.write(String.format(Locale.ROOT, "%d;%s;%d;%s;%s;%.0f", (long) time, metric, rank + 1, link.getId(),
+                        linkType == null ? "" : linkType, heap.getKey(top[rank])));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the links with the longest queues at the last event, longest first
+     */
+    public Id<Link>[] getTopQueues() {
+        return topIds(queueHeap);
+    }
+
+    /**
+     * @return the links with the longest spillback at the last event, longest first
+     */
+    public Id<Link>[] getTopSpillbacks() {
+        return topIds(spillbackHeap);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Id<Link>[] topIds(IndexedMaxHeap heap) {
+        int found = heap.top(TOP_K, top);
+        Id<Link>[] ids = new Id[found];
+        for (int i = 0; i < found; i++) {
+            ids[i] = index.getLink(top[i]).getId();
+        }
+        return ids;
+    }
+
+    @Override
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writer = null;
+        }
+    }
+
+
+    /**
+     * Set of ints below a fixed capacity with O(1) add, remove and iteration over its elements.
+     */
+    private static final class DenseSet {
+        private final int[] elements;
+        private final int[] positions;
+        private int size = 0;
+
+        DenseSet(int capacity) {
+            this.elements = new int[capacity];
+            this.positions = new int[capacity];
+            Arrays.fill(positions, -1);
+        }
+
+        void add(int element) {
+            if (positions[element] < 0) {
+                elements[size] = element;
+                positions[element] = size++;
+            }
+        }
+
+        void remove(int element) {
+            int pos = positions[element];
+            if (pos >= 0) {
+                int last = elements[--size];
+                elements[pos] = last;
+                positions[last] = pos;
+                positions[element] = -1;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int i) {
+            return elements[i];
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                positions[elements[i]] = -1;
+            }
+            size = 0;
+        }
+    }
+}
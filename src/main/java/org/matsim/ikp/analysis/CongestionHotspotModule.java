@@ -0,0 +1,63 @@
+package org.matsim.ikp.analysis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.groups.ControlerConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+
+/** @author: davidwedekind */
+
+public final class CongestionHotspotModule extends AbstractModule {
+
+    /**
+     * Writes ITERS/it.n/[runId.]n.congestion_hotspots.csv.gz in every iteration in which the controler writes its
+     * events.
+     */
+
+    @Override
+    public void install() {
+        addControlerListenerBinding().to(CongestionHotspotControlerListener.class);
+    }
+
+
+    @Singleton
+    static final class CongestionHotspotControlerListener implements IterationStartsListener, IterationEndsListener {
+        @Inject private Network network;
+        @Inject private EventsManager eventsManager;
+        @Inject private OutputDirectoryHierarchy controlerIO;
+        @Inject private ControlerConfigGroup controlerConfig;
+
+        private CongestionHotspotDetector detector;
+        private boolean detecting = false;
+
+        @Override
+        public void notifyIterationStarts(IterationStartsEvent event) {
+            int iteration = event.getIteration();
+            int interval = controlerConfig.getWriteEventsInterval();
+            if ((interval > 0 && iteration % interval == 0) || iteration == controlerConfig.getLastIteration()) {
+                if (detector == null) {
+                    detector = new CongestionHotspotDetector(network);
+                }
+                detector.start(controlerIO.getIterationFilename(iteration, CongestionHotspotDetector.FILE_NAME));
+                eventsManager.addHandler(detector);
+                detecting = true;
+            }
+        }
+
+        @Override
+        public void notifyIterationEnds(IterationEndsEvent event) {
+            if (detecting) {
+                eventsManager.removeHandler(detector);
+                detector.close();
+                detecting = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.matsim.ikp.analysis;
+
+/** @author: davidwedekind */
+
+public enum FruinLevelOfService {
+
+    /**
+     * Pedestrian level of service after Fruin (1971), derived from the area available per person. The thresholds
+     * depend on the kind of facility: people walking need more space than people on stairs, people waiting on a
+     * platform need the least.
+     */
+
+    A, B, C, D, E, F;
+
+    private static final FruinLevelOfService[] VALUES = values();
+
+    public enum Facility {
+        // lower bounds of the area per person in m^2 for A to E; below the last one it is F
+        WALKWAY(3.25, 2.32, 1.39, 0.93, 0.46),
+        STAIRWAY(1.85, 1.39, 0.93, 0.65, 0.37),
+        QUEUING(1.21, 0.93, 0.65, 0.28, 0.19);
+
+        private final double[] minAreaPerPerson;
+
+        Facility(double... minAreaPerPerson) {
+            this.minAreaPerPerson = minAreaPerPerson;
+        }
+
+        /**
+         * Maps the linkType attribute written by CreateNetworkFromVisumShpFile to a facility; unknown or missing link
+         * types count as walkway.
+         */
+        public static Facility of(Object linkType) {
+            if (linkType == null) {
+                return WALKWAY;
+            }
+            switch (linkType.toString()) {
+                case "Fussweg_Gleiszugang":
+                case "Fussweg_Verbinder_Aufzug":
+                    return QUEUING;
+                case "Stufen_aufwaerts":
+                case "Stufen_abwaerts":
+                case "Fahrtreppe_aufwaerts":
+                case "Fahrtreppe_abwaerts":
+                case "Fussweg_Verbinder_Treppe":
+                    return STAIRWAY;
+                default:
+                    return WALKWAY;
+            }
+        }
+    }
+
+    /**
+     * @param density persons per m^2
+     */
+    public static FruinLevelOfService of(Facility facility, double density) {
+        for (int i = 0; i < facility.minAreaPerPerson.length; i++) {
+            // compares density <= 1 / minArea without dividing by a density of 0
+            if (density * facility.minAreaPerPerson[i] <= 1.) {
+                return VALUES[i];
+            }
+        }
+        return F;
+    }
+}
@@ -0,0 +1,152 @@
+package org.matsim.ikp.analysis;
+
+import java.util.Arrays;
+
+/** @author: davidwedekind */
+
+final class IndexedMaxHeap {
+
+    /**
+     * Binary max-heap over the items 0..capacity-1 with a double key each. Keys of items already in the heap can be
+     * raised or lowered in O(log n); items with a key of 0 or less are not kept, so the heap only holds the items that
+     * currently matter. The k largest items are found in O(k^2) without touching the rest of the heap.
+     */
+
+    private final double[] keys;
+    private final int[] heap;
+    private final int[] positions;
+    private int size = 0;
+
+    // scratch space of top(), reused between calls
+    private int[] frontier = new int[0];
+
+    IndexedMaxHeap(int capacity) {
+        this.keys = new double[capacity];
+        this.heap = new int[capacity];
+        this.positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    void set(int item, double key) {
+        int pos = positions[item];
+        if (key <= 0.) {
+            if (pos >= 0) {
+                remove(pos);
+            }
+            return;
+        }
+        if (pos < 0) {
+            keys[item] = key;
+            heap[size] = item;
+            positions[item] = size;
+            siftUp(size++);
+        } else {
+            double old = keys[item];
+            keys[item] = key;
+            if (key > old) {
+                siftUp(pos);
+            } else {
+                siftDown(pos);
+            }
+        }
+    }
+
+    double getKey(int item) {
+        return positions[item] >= 0 ? keys[item] : 0.;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Writes the (at most) k items with the largest keys in descending order of their keys to items.
+     *
+     * @return the number of items written
+     */
+    int top(int k, int[] items) {
+        // best-first search from the root: the next largest key is always one of the children of the items taken so far
+        if (frontier.length < 2 * k + 1) {
+            frontier = new int[2 * k + 1];
+        }
+        int frontierSize = 0;
+        if (size > 0) {
+            frontier[frontierSize++] = 0;
+        }
+        int found = 0;
+        while (found < k && frontierSize > 0) {
+            int best = 0;
+            for (int i = 1; i < frontierSize; i++) {
+                if (keys[heap[frontier[i]]] > keys[heap[frontier[best]]]) {
+                    best = i;
+                }
+            }
+            int pos = frontier[best];
+            frontier[best] = frontier[--frontierSize];
+            items[found++] = heap[pos];
+            for (int child = 2 * pos + 1; child <= 2 * pos + 2 && child < size; child++) {
+                frontier[frontierSize++] = child;
+            }
+        }
+        return found;
+    }
+
+    private void remove(int pos) {
+        int item = heap[pos];
+        positions[item] = -1;
+        size--;
+        if (pos == size) {
+            return;
+        }
+        int moved = heap[size];
+        heap[pos] = moved;
+        positions[moved] = pos;
+        siftUp(pos);
+        siftDown(positions[moved]);
+    }
+
+    private void siftUp(int pos) {
+        int item = heap[pos];
+        double key = keys[item];
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (keys[heap[parent]] >= key) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            positions[heap[pos]] = pos;
+            pos = parent;
+        }
+        heap[pos] = item;
+        positions[item] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int item = heap[pos];
+        double key = keys[item];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[heap[child + 1]] > keys[heap[child]]) {
+                child++;
+            }
+            if (keys[heap[child]] <= key) {
+                break;
+            }
+            heap[pos] = heap[child];
+            positions[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = item;
+        positions[item] = pos;
+    }
+}
@@ -0,0 +1,62 @@
+package org.matsim.ikp.analysis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.groups.ControlerConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+
+/** @author: davidwedekind */
+
+public final class LinkOccupancyModule extends AbstractModule {
+
+    /**
+     * Writes ITERS/it.n/[runId.]n.link_occupancy.csv.gz in every iteration in which the controler writes its events.
+     */
+
+    @Override
+    public void install() {
+        addControlerListenerBinding().to(LinkOccupancyControlerListener.class);
+    }
+
+
+    @Singleton
+    static final class LinkOccupancyControlerListener implements IterationStartsListener, IterationEndsListener {
+        @Inject private Network network;
+        @Inject private EventsManager eventsManager;
+        @Inject private OutputDirectoryHierarchy controlerIO;
+        @Inject private ControlerConfigGroup controlerConfig;
+
+        private LinkOccupancyTracker tracker;
+        private boolean tracking = false;
+
+        @Override
+        public void notifyIterationStarts(IterationStartsEvent event) {
+            int iteration = event.getIteration();
+            int interval = controlerConfig.getWriteEventsInterval();
+            if ((interval > 0 && iteration % interval == 0) || iteration == controlerConfig.getLastIteration()) {
+                if (tracker == null) {
+                    tracker = new LinkOccupancyTracker(network);
+                }
+                tracker.start(controlerIO.getIterationFilename(iteration, LinkOccupancyTracker.FILE_NAME));
+                eventsManager.addHandler(tracker);
+                tracking = true;
+            }
+        }
+
+        @Override
+        public void notifyIterationEnds(IterationEndsEvent event) {
+            if (tracking) {
+                eventsManager.removeHandler(tracker);
+                tracker.close();
+                tracking = false;
+            }
+        }
+    }
+}
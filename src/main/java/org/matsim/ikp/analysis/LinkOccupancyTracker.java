@@ -0,0 +1,222 @@
+package org.matsim.ikp.analysis;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.ikp.network.NetworkIndex;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/** @author: davidwedekind */
+
+public final class LinkOccupancyTracker implements LinkEnterEventHandler, LinkLeaveEventHandler,
+        VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler, AutoCloseable {
+
+    /**
+     * Tracks the number of pedestrians on every link and writes the mean density (persons per m^2, from length and
+     * the width attribute) and the Fruin level of service of every link per time bin of BIN_SIZE seconds.
+     *
+     * The file is sparse, with one row 'time;link;density;los' per time bin and occupied link; links nobody was on
+     * during a bin are left out (their density is 0 and their level of service A). Events arrive in time order, so only
+     * the current bin is held in memory: when an event falls into a later bin, the finished bins are written and their
+     * accumulators reused. All state lives in primitive arrays indexed by the NetworkIndex of the links, so an event costs
+     * a few array accesses, and a bin only visits the links that were occupied during it.
+     */
+
+    private static final Logger log = Logger.getLogger(LinkOccupancyTracker.class);
+
+    public static final String FILE_NAME = "link_occupancy.csv.gz";
+
+    public static int BIN_SIZE = 60; // in s
+    public static double DEFAULT_WIDTH = 1.0; // in m, for links without width attribute
+
+    private final NetworkIndex index;
+    private final double[] area;
+    private final FruinLevelOfService.Facility[] facilities;
+
+    private final int[] occupancy;
+    private final double[] lastChange;
+    // person seconds spent on the link in the current bin
+    private final double[] occupancySeconds;
+    // links with events in the current bin or pedestrians left from the previous one
+    private final int[] activeLinks;
+    private final boolean[] active;
+    private int numberOfActiveLinks;
+    private int currentBin;
+
+    private BufferedWriter writer;
+    private final StringBuilder row = new StringBuilder();
+
+    public LinkOccupancyTracker(Network network) {
+        this(NetworkIndex.of(network));
+    }
+
+    public LinkOccupancyTracker(NetworkIndex index) {
+        this.index = index;
+        int links = index.getNumberOfLinks();
+        this.area = new double[links];
+        this.facilities = new FruinLevelOfService.Facility[links];
+        for (int i = 0; i < links; i++) {
+            Link link = index.getLink(i);
+            Object width = link.getAttributes().getAttribute("width");
+            double w = width instanceof Number ? ((Number) width).doubleValue() : DEFAULT_WIDTH;
+            area[i] = link.getLength() * w;
+            facilities[i] = FruinLevelOfService.Facility.of(link.getAttributes().getAttribute("linkType"));
+        }
+
+        this.occupancy = new int[links];
+        this.lastChange = new double[links];
+        this.occupancySeconds = new double[links];
+        this.activeLinks = new int[links];
+        this.active = new boolean[links];
+    }
+
+    /**
+     * Starts writing the occupancy of a new iteration; ends the previous one, if any.
+     */
+    public void start(String file) {
+        close();
+        Arrays.fill(occupancy, 0);
+        Arrays.fill(lastChange, 0.);
+        Arrays.fill(occupancySeconds, 0.);
+        Arrays.fill(active, false);
+        numberOfActiveLinks = 0;
+        currentBin = 0;
+
+        writer = IOUtils.getBufferedWriter(file);
+        try {
+            writer.write("time;link;density;los");
+            writer.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info(String.format("Writing densities of the occupied links to %s", file));
+    }
+
+    @Override
+    public void handleEvent(VehicleEntersTrafficEvent event) {
+        change(event.getLinkId(), event.getTime(), 1);
+    }
+
+    @Override
+    public void handleEvent(LinkEnterEvent event) {
+        change(event.getLinkId(), event.getTime(), 1);
+    }
+
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
+        change(event.getLinkId(), event.getTime(), -1);
+    }
+
+    @Override
+    public void handleEvent(VehicleLeavesTrafficEvent event) {
+        change(event.getLinkId(), event.getTime(), -1);
+    }
+
+    private void change(Id<Link> linkId, double time, int delta) {
+        int link = index.getLinkIndex(linkId);
+        if (link == NetworkIndex.NOT_IN_NETWORK || writer == null) {
+            return;
+        }
+        advanceTo(time);
+        if (!active[link]) {
+            active[link] = true;
+            activeLinks[numberOfActiveLinks++] = link;
+        }
+        occupancySeconds[link] += occupancy[link] * (time - lastChange[link]);
+        lastChange[link] = time;
+        occupancy[link] += delta;
+    }
+
+    private void advanceTo(double time) {
+        int bin = (int) (time / BIN_SIZE);
+        while (currentBin < bin) {
+            writeBin();
+            currentBin++;
+        }
+    }
+
+    private void writeBin() {
+        double binStart = (double) currentBin * BIN_SIZE;
+        double binEnd = binStart + BIN_SIZE;
+        int stillActive = 0;
+        try {
+            for (int i = 0; i < numberOfActiveLinks; i++) {
+                int link = activeLinks[i];
+                if (occupancy[link] > 0) {
+                    occupancySeconds[link] += occupancy[link] * (binEnd - lastChange[link]);
+                    // the link stays occupied in the next bin
+                    activeLinks[stillActive++] = link;
+                } else {
+                    active[link] = false;
+                }
+                lastChange[link] = binEnd;
+                if (occupancySeconds[link] > 0.) {
+                    double density = area[link] > 0. ? occupancySeconds[link] / BIN_SIZE / area[link] : 0.;
+                    row.setLength(0);
+                    row.append((long) binStart).append(';').append(index.getLink(link).getId()).append(';');
+                    appendFixed3(row, density);
+                    row.append(';').append(FruinLevelOfService.of(facilities[link], density).name()).append('\n');
+                    writer.append(row);
+                }
+                occupancySeconds[link] = 0.;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        numberOfActiveLinks = stillActive;
+    }
+
+    // writes with three decimals; StringBuilder.append(double) would switch to exponents and String.format is slow
+    private static void appendFixed3(StringBuilder sb, double value) {
+        long thousandths = Math.round(value * 1000.);
+        sb.append(thousandths / 1000).append('.');
+        long fraction = thousandths % 1000;
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    /**
+     * @return the number of pedestrians currently on the link
+     */
+    public int getOccupancy(Id<Link> linkId) {
+        int link = index.getLinkIndex(linkId);
+        return link == NetworkIndex.NOT_IN_NETWORK ? 0 : occupancy[link];
+    }
+
+    /**
+     * Writes the bin of the last event and closes the file of the current iteration.
+     */
+    @Override
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        writeBin();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package org.matsim.ikp.analysis;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.handler.ActivityEndEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonStuckEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.ikp.network.NetworkIndex;
+import org.matsim.ikp.prepare.CreateNetworkFromVisumShpFile;
+import org.matsim.ikp.prepare.CreatePopulationFromTimetable;
+import org.matsim.ikp.prepare.PersonType;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/** @author: davidwedekind */
+
+public final class PlatformClearanceAnalyzer implements ActivityEndEventHandler, VehicleEntersTrafficEventHandler,
+        LinkLeaveEventHandler, PersonArrivalEventHandler, PersonStuckEventHandler {
+
+    /**
+     * Measures during the simulation how long it takes until the passengers leaving a train (train_disembarking, i.e.
+     * ZA and UM agents) have cleared the platform, to check it against CreateNetworkFromVisumShpFile.PLATFORM_CLEARANCE_TIME.
+     *
+     * The clearance time of a train runs from the first of its passengers leaving the train until the last of them
+     * leaves a platform link or arrives on one (transferring passengers end on the platform). Platform links are links
+     * of type Fussweg_Gleiszugang and links starting or ending at a pf_ node; trains are taken from the person
+     * attribute CreatePopulationFromTimetable.TRAIN_ID_ATTRIBUTE.
+     *
+     * All state is kept in primitive arrays indexed by the NetworkIndex of the links, by Id.index() of persons and
+     * vehicles and by train, so handling an event allocates nothing.
+     */
+
+    private static final Logger log = Logger.getLogger(PlatformClearanceAnalyzer.class);
+
+    public static final String FILE_NAME = "platform_clearance.csv";
+    public static String PLATFORM_LINK_TYPE = "Fussweg_Gleiszugang";
+    public static String PLATFORM_NODE_PREFIX = "pf_";
+
+    private static final int NO_TRAIN = -1;
+    private static final int NO_PERSON = -1;
+
+    private final NetworkIndex index;
+    private final boolean[] platformLinks;
+    private final int[] personTrains;
+    private final List<String> trainIds = new ArrayList<>();
+    private int[] vehiclePersons = new int[0];
+
+    // per train, reset every iteration
+    private final int[] passengers;
+    private final double[] firstDisembarking;
+    private final double[] lastPlatformExit;
+    private final int[] arrived;
+    private final int[] stuck;
+
+    public PlatformClearanceAnalyzer(Network network, Population population) {
+        this(NetworkIndex.of(network), population);
+    }
+
+    public PlatformClearanceAnalyzer(NetworkIndex index, Population population) {
+        this.index = index;
+        this.platformLinks = new boolean[index.getNumberOfLinks()];
+        int platformLinkCount = 0;
+        for (int link = 0; link < platformLinks.length; link++) {
+            if (isPlatformLink(index.getLink(link))) {
+                platformLinks[link] = true;
+                platformLinkCount++;
+            }
+        }
+
+        this.personTrains = new int[Id.getNumberOfIds(Person.class)];
+        Arrays.fill(personTrains, NO_TRAIN);
+        Map<String, Integer> trainSlots = new HashMap<>();
+        List<Integer> trainPassengers = new ArrayList<>();
+        for (Person person : population.getPersons().values()) {
+            Object trainId = person.getAttributes().getAttribute(CreatePopulationFromTimetable.TRAIN_ID_ATTRIBUTE);
+            if (trainId == null || !isDisembarking(person)) {
+                continue;
+            }
+            int slot = trainSlots.computeIfAbsent(trainId.toString(), id -> {
+                trainIds.add(id);
+                trainPassengers.add(0);
+                return trainIds.size() - 1;
+            });
+            personTrains[person.getId().index()] = slot;
+            trainPassengers.set(slot, trainPassengers.get(slot) + 1);
+        }
+
+        int trains = trainIds.size();
+        this.passengers = trainPassengers.stream().mapToInt(Integer::intValue).toArray();
+        this.firstDisembarking = new double[trains];
+        this.lastPlatformExit = new double[trains];
+        this.arrived = new int[trains];
+        this.stuck = new int[trains];
+        reset(0);
+        log.info(String.format("Tracking platform clearance of %d trains on %d platform links", trains, platformLinkCount));
+        if (trains == 0 && !population.getPersons().isEmpty()) {
+            log.warn(String.format("No disembarking person has the attribute %s; the platform clearance cannot be measured",
+                    CreatePopulationFromTimetable.TRAIN_ID_ATTRIBUTE));
+        }
+    }
+
+    private static boolean isPlatformLink(Link link) {
+        return PLATFORM_LINK_TYPE.equals(link.getAttributes().getAttribute("linkType"))
+                || link.getFromNode().getId().toString().startsWith(PLATFORM_NODE_PREFIX)
+                || link.getToNode().getId().toString().startsWith(PLATFORM_NODE_PREFIX);
+    }
+
+    private static boolean isDisembarking(Person person) {
+        List<PlanElement> elements = person.getSelectedPlan().getPlanElements();
+        return !elements.isEmpty() && elements.get(0) instanceof Activity
+                && PersonType.ZA.getOriginActivity().equals(((Activity) elements.get(0)).getType());
+    }
+
+    @Override
+    public void reset(int iteration) {
+        Arrays.fill(firstDisembarking, Double.POSITIVE_INFINITY);
+        Arrays.fill(lastPlatformExit, Double.NEGATIVE_INFINITY);
+        Arrays.fill(arrived, 0);
+        Arrays.fill(stuck, 0);
+        Arrays.fill(vehiclePersons, NO_PERSON);
+    }
+
+    @Override
+    public void handleEvent(ActivityEndEvent event) {
+        int train = train(event.getPersonId());
+        if (train != NO_TRAIN && event.getTime() < firstDisembarking[train]) {
+            firstDisembarking[train] = event.getTime();
+        }
+    }
+
+    @Override
+    public void handleEvent(VehicleEntersTrafficEvent event) {
+        int vehicle = event.getVehicleId().index();
+        if (vehicle >= vehiclePersons.length) {
+            int oldLength = vehiclePersons.length;
+            vehiclePersons = Arrays.copyOf(vehiclePersons, Math.max(vehicle + 1, Math.max(1024, oldLength * 2)));
+            Arrays.fill(vehiclePersons, oldLength, vehiclePersons.length, NO_PERSON);
+        }
+        vehiclePersons[vehicle] = event.getPersonId().index();
+    }
+
+    @Override
+    public void handleEvent(LinkLeaveEvent event) {
+        if (isPlatformLink(event.getLinkId())) {
+            int train = trainOfVehicle(event.getVehicleId());
+            if (train != NO_TRAIN) {
+                platformExit(train, event.getTime());
+            }
+        }
+    }
+
+    @Override
+    public void handleEvent(PersonArrivalEvent event) {
+        int train = train(event.getPersonId());
+        if (train != NO_TRAIN) {
+            arrived[train]++;
+            if (isPlatformLink(event.getLinkId())) {
+                platformExit(train, event.getTime());
+            }
+        }
+    }
+
+    @Override
+    public void handleEvent(PersonStuckEvent event) {
+        int train = train(event.getPersonId());
+        if (train != NO_TRAIN) {
+            stuck[train]++;
+        }
+    }
+
+    private void platformExit(int train, double time) {
+        if (time > lastPlatformExit[train]) {
+            lastPlatformExit[train] = time;
+        }
+    }
+
+    private boolean isPlatformLink(Id<Link> link) {
+        int dense = index.getLinkIndex(link);
+        return dense != NetworkIndex.NOT_IN_NETWORK && platformLinks[dense];
+    }
+
+    private int train(Id<Person> person) {
+        int id = person.index();
+        return id < personTrains.length ? personTrains[id] : NO_TRAIN;
+    }
+
+    private int trainOfVehicle(Id<Vehicle> vehicle) {
+        int id = vehicle.index();
+        if (id >= vehiclePersons.length || vehiclePersons[id] == NO_PERSON) {
+            return NO_TRAIN;
+        }
+        int person = vehiclePersons[id];
+        return person < personTrains.length ? personTrains[person] : NO_TRAIN;
+    }
+
+    /**
+     * @return the clearance time of the train in s, or NaN if none of its passengers has left the train or not all of
+     * them have cleared the platform
+     */
+    public double getClearanceTime(String trainId) {
+        int train = trainIds.indexOf(trainId);
+        return train < 0 ? Double.NaN : clearanceTime(train);
+    }
+
+    private double clearanceTime(int train) {
+        if (firstDisembarking[train] == Double.POSITIVE_INFINITY || lastPlatformExit[train] == Double.NEGATIVE_INFINITY || arrived[train] + stuck[train] < passengers[train] || stuck[train] > 0) {
+            return Double.NaN;
+        }
+        return lastPlatformExit[train] - firstDisembarking[train];
+    }
+
+    /**
+     * Writes one row per train; compliant is false if the clearance time exceeds PLATFORM_CLEARANCE_TIME or could not
+     * be determined.
+     */
+    public void writeCsv(Path file) {
+        int violations = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("trainId;passengers;arrived;stuck;firstDisembarking;lastPlatformExit;clearanceTime;compliant");
+            writer.newLine();
+            for (int train = 0; train < trainIds.size(); train++) {
+                double clearance = clearanceTime(train);
+                boolean compliant = clearance <= CreateNetworkFromVisumShpFile.PLATFORM_CLEARANCE_TIME;
+                if (!compliant) {
+                    violations++;
+                }
+                writer.write(String.format(Locale.ROOT, "%s;%d;%d;%d;%s;%s;%s;%b", trainIds.get(train), passengers[train],
+                        arrived[train], stuck[train], format(firstDisembarking[train]), format(lastPlatformExit[train]),
+                        format(clearance), compliant));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info(String.format("Platform clearance written to %s: %d of %d trains exceed %.0f s", file, violations,
+                trainIds.size(), CreateNetworkFromVisumShpFile.PLATFORM_CLEARANCE_TIME));
+    }
+
+    private static String format(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.1f", value) : "";
+    }
+}
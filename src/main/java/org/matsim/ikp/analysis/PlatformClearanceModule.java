@@ -0,0 +1,54 @@
+package org.matsim.ikp.analysis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+
+import java.nio.file.Paths;
+
+/** @author: davidwedekind */
+
+public final class PlatformClearanceModule extends AbstractModule {
+
+    /**
+     * Runs the PlatformClearanceAnalyzer alongside the mobsim and writes ITERS/it.n/[runId.]n.platform_clearance.csv at
+     * the end of every iteration.
+     */
+
+    @Override
+    public void install() {
+        addControlerListenerBinding().to(PlatformClearanceControlerListener.class);
+    }
+
+
+    @Singleton
+    static final class PlatformClearanceControlerListener implements IterationStartsListener, IterationEndsListener {
+        @Inject private Scenario scenario;
+        @Inject private EventsManager eventsManager;
+        @Inject private OutputDirectoryHierarchy controlerIO;
+
+        private PlatformClearanceAnalyzer analyzer;
+
+        @Override
+        public void notifyIterationStarts(IterationStartsEvent event) {
+            if (analyzer == null) {
+                // built on the first iteration, when all ids of network and population exist
+                analyzer = new PlatformClearanceAnalyzer(scenario.getNetwork(), scenario.getPopulation());
+                eventsManager.addHandler(analyzer);
+            }
+        }
+
+        @Override
+        public void notifyIterationEnds(IterationEndsEvent event) {
+            int iteration = event.getIteration();
+            analyzer.writeCsv(Paths.get(controlerIO.getIterationFilename(iteration, PlatformClearanceAnalyzer.FILE_NAME)));
+        }
+    }
+}
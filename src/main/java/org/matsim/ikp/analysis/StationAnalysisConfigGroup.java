@@ -0,0 +1,91 @@
+package org.matsim.ikp.analysis;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.Map;
+
+/** @author: davidwedekind */
+
+public class StationAnalysisConfigGroup extends ReflectiveConfigGroup {
+
+    /**
+     * Selects the station analyses that StationAnalysisModule adds to a run. All of them are off by default, so a run
+     * only pays for the analyses it asks for.
+     */
+
+    public static final String GROUP_NAME = "stationAnalysis";
+
+    static final String BINARY_EVENTS = "binaryEvents";
+    static final String PLATFORM_CLEARANCE = "platformClearance";
+    static final String LINK_OCCUPANCY = "linkOccupancy";
+    static final String CONGESTION_HOTSPOTS = "congestionHotspots";
+
+    private BinaryEvents binaryEvents = BinaryEvents.off;
+    private boolean platformClearance = false;
+    private boolean linkOccupancy = false;
+    private boolean congestionHotspots = false;
+
+    public StationAnalysisConfigGroup() {
+        super(GROUP_NAME);
+    }
+
+    @Override
+    public Map<String, String> getComments() {
+        Map<String, String> map = super.getComments();
+        map.put(BINARY_EVENTS, "Binary events (events.bin) in the iterations in which the controler writes events. off: none; "
+                + "alongsideXml: in addition to the xml events; insteadOfXml: the xml events are only written in the last "
+                + "iteration (and thus as output_events). Default: off");
+        map.put(PLATFORM_CLEARANCE, "Per train, the time the alighting passengers need to leave the platform "
+                + "(platform_clearance.csv in every iteration). Default: false");
+        map.put(LINK_OCCUPANCY, "Densities and Fruin levels of service of the occupied links per time bin (link_occupancy.csv.gz "
+                + "in the iterations in which the controler writes events). Default: false");
+        map.put(CONGESTION_HOTSPOTS, "Links with the longest queues and spillbacks (congestion_hotspots.csv.gz in the "
+                + "iterations in which the controler writes events). Default: false");
+        return map;
+    }
+
+    @StringGetter(BINARY_EVENTS)
+    public BinaryEvents getBinaryEvents() {
+        return binaryEvents;
+    }
+
+    @StringSetter(BINARY_EVENTS)
+    public void setBinaryEvents(BinaryEvents binaryEvents) {
+        this.binaryEvents = binaryEvents;
+    }
+
+    @StringGetter(PLATFORM_CLEARANCE)
+    public boolean isPlatformClearance() {
+        return platformClearance;
+    }
+
+    @StringSetter(PLATFORM_CLEARANCE)
+    public void setPlatformClearance(boolean platformClearance) {
+        this.platformClearance = platformClearance;
+    }
+
+    @StringGetter(LINK_OCCUPANCY)
+    public boolean isLinkOccupancy() {
+        return linkOccupancy;
+    }
+
+    @StringSetter(LINK_OCCUPANCY)
+    public void setLinkOccupancy(boolean linkOccupancy) {
+        this.linkOccupancy = linkOccupancy;
+    }
+
+    @StringGetter(CONGESTION_HOTSPOTS)
+    public boolean isCongestionHotspots() {
+        return congestionHotspots;
+    }
+
+    @StringSetter(CONGESTION_HOTSPOTS)
+    public void setCongestionHotspots(boolean congestionHotspots) {
+        this.congestionHotspots = congestionHotspots;
+    }
+
+
+    public enum BinaryEvents {
+        off, alongsideXml, insteadOfXml
+    }
+}
@@ -0,0 +1,66 @@
+package org.matsim.ikp.analysis;
+
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControlerConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+
+import java.util.Collections;
+
+/** @author: davidwedekind */
+
+public final class StationAnalysisModule extends AbstractModule {
+
+    /**
+     * Installs the analyses selected in the StationAnalysisConfigGroup. Call prepareConfig before the controler is
+     * created, since some analyses change what the controler itself writes.
+     */
+
+    /**
+     * Stops the controler from writing xml events if the binary events replace them; BinaryEventsModule then writes
+     * the xml events of the last iteration itself.
+     */
+    public static void prepareConfig(Config config) {
+        StationAnalysisConfigGroup analysis = ConfigUtils.addOrGetModule(config, StationAnalysisConfigGroup.class);
+        if (analysis.getBinaryEvents() == StationAnalysisConfigGroup.BinaryEvents.insteadOfXml) {
+            config.controler().setEventsFileFormats(Collections.emptySet());
+        }
+    }
+
+    @Override
+    public void install() {
+        StationAnalysisConfigGroup analysis = ConfigUtils.addOrGetModule(getConfig(), StationAnalysisConfigGroup.class);
+
+        switch (analysis.getBinaryEvents()) {
+            case off:
+                break;
+
+            case insteadOfXml:
+                if (getConfig().controler().getEventsFileFormats().contains(ControlerConfigGroup.EventsFileFormat.xml)) {
+                    throw new IllegalStateException(String.format("%s.%s is %s, but StationAnalysisModule.prepareConfig was not called",
+                            StationAnalysisConfigGroup.GROUP_NAME, StationAnalysisConfigGroup.BINARY_EVENTS, analysis.getBinaryEvents()));
+                }
+                install(new BinaryEventsModule(true));
+                break;
+
+            case alongsideXml:
+                install(new BinaryEventsModule(false));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown binary events setting: " + analysis.getBinaryEvents());
+        }
+
+        if (analysis.isPlatformClearance()) {
+            install(new PlatformClearanceModule());
+        }
+
+        if (analysis.isLinkOccupancy()) {
+            install(new LinkOccupancyModule());
+        }
+
+        if (analysis.isCongestionHotspots()) {
+            install(new CongestionHotspotModule());
+        }
+    }
+}
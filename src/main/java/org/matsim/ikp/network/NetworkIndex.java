@@ -0,0 +1,95 @@
+package org.matsim.ikp.network;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.util.Arrays;
+
+/** @author: davidwedekind */
+
+public final class NetworkIndex {
+
+    /**
+     * Numbers the links and nodes of a network contiguously from 0, so that per-link and per-node data can be kept in
+     * plain arrays instead of maps keyed by Id. Looking up the dense index of an id is two array accesses (via
+     * Id.index()), and the end nodes of every link are available as dense node indices.
+     *
+     * The index is a snapshot: links and nodes added to or removed from the network afterwards are not reflected, so
+     * build it once the network is complete. Ids that are not part of the network map to NOT_IN_NETWORK.
+     */
+
+    public static final int NOT_IN_NETWORK = -1;
+
+    private final Link[] links;
+    private final Node[] nodes;
+    private final int[] linkIndexById;
+    private final int[] nodeIndexById;
+    private final int[] fromNodes;
+    private final int[] toNodes;
+
+    private NetworkIndex(Network network) {
+        this.nodes = network.getNodes().values().toArray(new Node[0]);
+        this.nodeIndexById = new int[Id.getNumberOfIds(Node.class)];
+        Arrays.fill(nodeIndexById, NOT_IN_NETWORK);
+        for (int i = 0; i < nodes.length; i++) {
+            nodeIndexById[nodes[i].getId().index()] = i;
+        }
+
+        this.links = network.getLinks().values().toArray(new Link[0]);
+        this.linkIndexById = new int[Id.getNumberOfIds(Link.class)];
+        Arrays.fill(linkIndexById, NOT_IN_NETWORK);
+        this.fromNodes = new int[links.length];
+        this.toNodes = new int[links.length];
+        for (int i = 0; i < links.length; i++) {
+            linkIndexById[links[i].getId().index()] = i;
+            fromNodes[i] = getNodeIndex(links[i].getFromNode().getId());
+            toNodes[i] = getNodeIndex(links[i].getToNode().getId());
+        }
+    }
+
+    public static NetworkIndex of(Network network) {
+        return new NetworkIndex(network);
+    }
+
+    public int getNumberOfLinks() {
+        return links.length;
+    }
+
+    public int getNumberOfNodes() {
+        return nodes.length;
+    }
+
+    public int getLinkIndex(Id<Link> linkId) {
+        int id = linkId.index();
+        return id < linkIndexById.length ? linkIndexById[id] : NOT_IN_NETWORK;
+    }
+
+    public int getNodeIndex(Id<Node> nodeId) {
+        int id = nodeId.index();
+        return id < nodeIndexById.length ? nodeIndexById[id] : NOT_IN_NETWORK;
+    }
+
+    public Link getLink(int link) {
+        return links[link];
+    }
+
+    public Node getNode(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * @return the dense index of the from node of the link
+     */
+    public int getFromNode(int link) {
+        return fromNodes[link];
+    }
+
+    /**
+     * @return the dense index of the to node of the link
+     */
+    public int getToNode(int link) {
+        return toNodes[link];
+    }
+}
@@ -3,22 +3,43 @@ package org.matsim.ikp.prepare;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.apache.log4j.Logger;
+import org.geotools.data.FileDataStore;
+import org.geotools.data.FileDataStoreFinder;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.util.Assert;
+import org.locationtech.jts.util.AssertionFailedException;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.*;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.utils.gis.ShapeFileReader;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.ReferenceIdentifier;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /** @author: davidwedekind */
 
@@ -29,15 +50,27 @@ public class CreateNetworkFromVisumShpFile {
      * to a matsim network.xml
      *
      * The method 'createNetwork' takes the node and link shape file paths and additionally information on which linkModes to set
+     * If VALIDATE is true, its result is checked by the VisumNetworkValidator, which logs topology problems
      */
 
     private static final Logger log = Logger.getLogger(CreateNetworkFromVisumShpFile.class);
 
-    // ToDo: It would be nice to have the settings in a custom config group
     // SETTINGS ...
+    // walking parameters per link type are set in the VisumNetworkConfigGroup
 
     // general settings
     public static String COORD_REF_SYS = "epsg:32632";
+    // if true, features are handed to the network builder one at a time while the shapefile is read;
+    // if false, all features are read into memory first. The (much smaller) link descriptors are kept in memory either way
+    // until the directional link ids are assigned
+    public static boolean STREAMING_INGEST = true;
+    // number of threads building link descriptors; 1 builds them on the calling thread
+    public static int NUMBER_OF_THREADS = 1;
+    // number of link features that are held in memory and processed together
+    public static int LINK_BATCH_SIZE = 50_000;
+    // if true, every network that is created or updated is checked by the VisumNetworkValidator; a network read from the
+    // cache is only checked if it was not checked when it was cached. Off by default, since the checks only log their findings
+    public static boolean VALIDATE = false;
     // node file settings
     public static String NODE_ID_ATTR = "NO";
     public static String NODE_LN_ATTR = "NAME";
@@ -74,41 +107,111 @@ public class CreateNetworkFromVisumShpFile {
         log.info("Input shapefile with nodes: " + ndShpFile);
         log.info("Input shapefile with links: " + lnkShpFile);
         log.info("Output network file path: " + netOutput);
+        NUMBER_OF_THREADS = input.threads;
+        VALIDATE = input.validate;
+
+        VisumNetworkConfigGroup configGroup = new VisumNetworkConfigGroup();
+        if (input.config != null) {
+            log.info("Config file with walking parameters: " + input.config);
+            Config config = ConfigUtils.loadConfig(input.config, configGroup);
+            configGroup = ConfigUtils.addOrGetModule(config, VisumNetworkConfigGroup.class);
+        }
 
         Set<String> linkModes = Set.of("walk_1_39");
-        Network net = createNetwork(Path.of(ndShpFile), Path.of(lnkShpFile), linkModes);
+        Network net;
+        if (input.incremental) {
+            net = updateNetwork(Path.of(ndShpFile), Path.of(lnkShpFile), linkModes, configGroup, Path.of(netOutput));
+        } else if (input.cacheDir != null) {
+            net = createNetworkCached(Path.of(ndShpFile), Path.of(lnkShpFile), linkModes, configGroup, Path.of(input.cacheDir));
+        } else {
+            net = createNetwork(Path.of(ndShpFile), Path.of(lnkShpFile), linkModes, configGroup);
+        }
         writeNetwork(net, Path.of(netOutput));
     }
 
     public static Network createNetwork(Path nodeShpFile, Path linkShpFile, Set<String> linkModes){
+        return createNetwork(nodeShpFile, linkShpFile, linkModes, new VisumNetworkConfigGroup());
+    }
+
+    public static Network createNetwork(Path nodeShpFile, Path linkShpFile, Set<String> linkModes, VisumNetworkConfigGroup configGroup){
         log.info("Start creating network");
         Network net = NetworkUtils.createNetwork();
         NetworkFactory fac = net.getFactory();
         net.getAttributes().putAttribute("coordinateReferenceSystem", COORD_REF_SYS);
         addNodes(net, nodeShpFile);
-        addLinks(net, linkShpFile, linkModes);
+        addLinks(net, linkShpFile, linkModes, configGroup);
+        validate(net, linkModes);
         return net;
     }
 
 
+    private static void validate(Network net, Set<String> linkModes) {
+        if (VALIDATE) {
+            VisumNetworkValidator.validate(net, linkModes);
+        }
+    }
+
+
+    /**
+     * Like createNetwork, but the converted network is kept in a binary cache file in cacheDir. The cache file is keyed by
+     * the content of the shapefiles and all importer settings, so an unchanged station is read from the cache.
+     */
+    public static Network createNetworkCached(Path nodeShpFile, Path linkShpFile, Set<String> linkModes, VisumNetworkConfigGroup configGroup, Path cacheDir){
+        Path cacheFile = VisumNetworkCache.getCacheFile(cacheDir, VisumNetworkCache.computeKey(nodeShpFile, linkShpFile, linkModes, configGroup));
+        Path validatedFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".validated");
+        if (Files.exists(cacheFile)) {
+            log.info(String.format("Read network from cache: %s", cacheFile));
+            Network net = VisumNetworkCache.read(cacheFile);
+            if (VALIDATE && !Files.exists(validatedFile)) {
+                validate(net, linkModes);
+                markValidated(validatedFile);
+            }
+            return net;
+        }
+
+        Network net = createNetwork(nodeShpFile, linkShpFile, linkModes, configGroup);
+        writeNetworkCache(net, cacheFile);
+        if (VALIDATE) {
+            markValidated(validatedFile);
+        } else {
+            deleteIfExists(validatedFile);
+        }
+        return net;
+    }
+
+
+    private static void markValidated(Path validatedFile) {
+        try {
+            Files.write(validatedFile, new byte[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
     private static void addNodes(Network net, Path nodeShpFile){
         log.info("Add nodes");
-        log.info(String.format("Read nodes from shapefile: %s", nodeShpFile));
-        performCRSCheck(nodeShpFile);
+        readNodes(nodeShpFile, (nodeId, longName, x, y) -> createNode(net, nodeId, longName, x, y));
+    }
 
-        Collection<SimpleFeature> features = ShapeFileReader.getAllFeatures(String.valueOf(nodeShpFile));
+
+    private static void readNodes(Path nodeShpFile, NodeHandler handler){
+        log.info(String.format("Read nodes from shapefile: %s", nodeShpFile));
         String ptAssMessage = "The parsed shapefile contains geometries which are not of type 'point'.";
         // create one node per point geometry feature in shapefile
-        for(var feature: features){
-            Geometry geometry = (Geometry) feature.getDefaultGeometry();
-            Assert.isTrue(geometry instanceof Point, ptAssMessage);
-            Point pt = (Point) geometry;
-            createNode(net,
-                    feature.getAttribute(NODE_ID_ATTR).toString(),
-                    feature.getAttribute(NODE_LN_ATTR).toString(),
-                    pt.getX(),
-                    pt.getY());
-        }
+        readFeatures(nodeShpFile, featureType -> {
+            NodeSchema schema = new NodeSchema(featureType);
+            return feature -> {
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                Assert.isTrue(geometry instanceof Point, ptAssMessage);
+                Point pt = (Point) geometry;
+                handler.handle(
+                        feature.getAttribute(schema.id).toString(),
+                        feature.getAttribute(schema.longName).toString(),
+                        pt.getX(),
+                        pt.getY());
+            };
+        });
     }
 
 
@@ -119,118 +222,455 @@ public class CreateNetworkFromVisumShpFile {
     }
 
 
-    private static void addLinks(Network net, Path linkShpFile, Set<String> linkModes) {
+    private static void addLinks(Network net, Path linkShpFile, Set<String> linkModes, VisumNetworkConfigGroup configGroup) {
         log.info("Add links");
+        commitLinks(net, readLinks(linkShpFile, configGroup), linkModes);
+    }
+
+
+    /**
+     * @return the descriptors of all relevant links in file order, with directional link ids assigned
+     *
+     * The directions of a Visum link may be anywhere in the file, so all descriptors are kept until the ids are
+     * assigned: memory grows with the number of links, even with STREAMING_INGEST (which only bounds the number of
+     * features held at a time to LINK_BATCH_SIZE).
+     */
+    private static List<LinkDescriptor> readLinks(Path linkShpFile, VisumNetworkConfigGroup configGroup) {
         log.info(String.format("Read links from shapefile: %s", linkShpFile));
-        performCRSCheck(linkShpFile);
-
-        Collection<SimpleFeature> features = ShapeFileReader.getAllFeatures(String.valueOf(linkShpFile));
-        // Precondition: export directional vertices from Visum
-        for(var feature: features) {
-            // there are irrelevant links in shapefile
-            if (! (typeNotRelevant.contains(feature.getAttribute(LINK_TYPE_ATTR).toString()))){
-
-                // Differentiate id between directional links
-                String linkId = feature.getAttribute(LINK_ID_ATTR).toString();
-                if (net.getLinks().containsKey(Id.createLinkId(linkId + "_0"))){
-                    linkId = linkId + "_1";
-                } else {
-                    linkId = linkId + "_0";
-                }
 
-                double length;
-                if (feature.getAttribute(LENGTH_ATTR_1ST_CHOICE) != null) {
-                    length = Double.parseDouble(feature.getAttribute(LENGTH_ATTR_1ST_CHOICE).toString());
-                } else {
-                    length = Double.parseDouble(feature.getAttribute(LENGTH_ATTR_2ND_CHOICE).toString())*1000; // Precondition: length in m
-                }
+        // features are collected in batches; the link descriptors of a batch are built (in parallel, if configured)
+        // and then collected in file order, so the result does not depend on the number of threads
+        LinkCapacityTable capacityTable = new LinkCapacityTable(configGroup);
+        List<LinkDescriptor> descriptors = new ArrayList<>();
+        ForkJoinPool pool = NUMBER_OF_THREADS > 1 ? new ForkJoinPool(NUMBER_OF_THREADS) : null;
+        try {
+            // Precondition: export directional vertices from Visum
+            LinkBatcher batcher = readFeatures(linkShpFile, featureType -> new LinkBatcher(new LinkSchema(featureType, capacityTable), pool,
+                    batch -> {
+                        for (LinkDescriptor desc: batch) {
+                            // there are irrelevant links in shapefile
+                            if (desc != null) {
+                                descriptors.add(desc);
+                            }
+                        }
+                    }));
+            batcher.flush();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+        assignDirectionalLinkIds(descriptors);
+        return descriptors;
+    }
 
-                // create basic link
-                Link lnk = createLink(net,
-                        linkId,
-                        feature.getAttribute(FROM_NODE_ID_ATTR).toString(),
-                        feature.getAttribute(TO_NODE_ID_ATTR).toString(),
-                        length,
-                        Double.parseDouble(feature.getAttribute(MAX_SPEED_ATTR).toString()) / 3.6, // Precondition: speed in km/h
-                        linkModes
-                );
-
-                // add further attributes
-                // add width
-                double width = readShpFileAttributeAsDouble(feature, WIDTH_ATTR, stdWidth);
-                lnk.getAttributes().putAttribute("width", width);
-
-                // add link type
-                // the link type needs to be element of the enum LinkType
-                String lnkTypeString = readShpFileAttributeAsString(feature, LINK_TYPE_ATTR, "");
-                String lnkTypeAssMessage = String.format("The parsed shapefile contains links with linkTypes not recognized: %s", lnkTypeString);
-                Assert.isTrue(Arrays.stream(LinkType.values()).anyMatch(el -> el.name().contains(lnkTypeString)), lnkTypeAssMessage);
-                LinkType lnkType = LinkType.valueOf(lnkTypeString);
-                lnk.getAttributes().putAttribute("linkType", lnkType.toString());
-
-                // add osm id and name
-                String osmId = readShpFileAttributeAsString(feature, OSM_ID_ATTR, "");
-                lnk.getAttributes().putAttribute("osmID", osmId);
-                String osmName = readShpFileAttributeAsString(feature, OSM_NAME_ATTR, "");
-                lnk.getAttributes().putAttribute("osmName", osmName);
-
-                // calculate the flow capacity (based on link type and width)
-                calculateLinkTypeSpecificAttributes(lnk, lnkType, width);
-
-                // add to network
-                net.addLink(lnk);
+
+    /**
+     * Differentiates the ids of directional links that share the same Visum link number: all links with the same
+     * LINK_ID_ATTR are ordered by (FROM, TO) node and suffixed with their position in this order. For the usual pair of
+     * directions between nodes a < b, the link a -> b gets '_0' and b -> a gets '_1', independent of the order in which
+     * Visum exported them.
+     */
+    private static void assignDirectionalLinkIds(List<LinkDescriptor> descriptors) {
+        List<LinkDescriptor> sorted = new ArrayList<>(descriptors);
+        sorted.sort(Comparator.comparing((LinkDescriptor desc) -> desc.visumId)
+                .thenComparing(desc -> desc.fromNodeId, CreateNetworkFromVisumShpFile::compareNodeIds)
+                .thenComparing(desc -> desc.toNodeId, CreateNetworkFromVisumShpFile::compareNodeIds));
+
+        int groupStart = 0;
+        for (int i = 1; i <= sorted.size(); i++) {
+            if (i < sorted.size() && sorted.get(i).visumId.equals(sorted.get(groupStart).visumId)) {
+                continue;
             }
+            if (i - groupStart > 2) {
+                log.warn(String.format("Visum link %s occurs %d times; expected at most one link per direction", sorted.get(groupStart).visumId, i - groupStart));
+            }
+            for (int j = groupStart; j < i; j++) {
+                LinkDescriptor desc = sorted.get(j);
+                desc.linkId = Id.createLinkId(desc.visumId + "_" + (j - groupStart));
+            }
+            groupStart = i;
+        }
+    }
+
+
+    static int compareNodeIds(String nodeId1, String nodeId2) {
+        // Visum node numbers are numeric; compare them as numbers so that e.g. 9 < 10. For a total order, all numeric
+        // ids come before all other ids, which are compared as strings; equal numbers (e.g. 7 and 007) as strings, too
+        boolean numeric1 = isNumeric(nodeId1);
+        boolean numeric2 = isNumeric(nodeId2);
+        if (numeric1 != numeric2) {
+            return numeric1 ? -1 : 1;
+        }
+        if (numeric1) {
+            int byNumber = Long.compare(Long.parseLong(nodeId1), Long.parseLong(nodeId2));
+            if (byNumber != 0) {
+                return byNumber;
+            }
+        }
+        return nodeId1.compareTo(nodeId2);
+    }
 
 
+    private static boolean isNumeric(String nodeId) {
+        try {
+            Long.parseLong(nodeId);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
 
+    private static LinkDescriptor[] describeLinks(List<SimpleFeature> features, LinkSchema schema, ForkJoinPool pool) {
+        LinkDescriptor[] descriptors = new LinkDescriptor[features.size()];
+        if (pool == null) {
+            for (int i = 0; i < descriptors.length; i++) {
+                descriptors[i] = describeLink(features.get(i), schema);
+            }
+        } else {
+            pool.invoke(new DescribeLinksTask(features, schema, descriptors, 0, descriptors.length));
         }
+        return descriptors;
     }
 
 
-    private static void calculateLinkTypeSpecificAttributes(Link lnk, LinkType lnkType, double width){
-        // ToDo: Include in config group setup
-        double v;
-        double d;
-        switch (lnkType) {
-            case Stufen_aufwaerts:
-                v = 0.5;
-                d = 1.2;
-                break;
+    private static LinkDescriptor describeLink(SimpleFeature feature, LinkSchema schema) {
+        // the link type needs to be element of the enum LinkType
+        String lnkTypeString = feature.getAttribute(schema.linkType).toString();
+        LinkTypeEntry lnkTypeEntry = schema.linkTypes.get(lnkTypeString);
+        if (lnkTypeEntry == null){
+            throw new AssertionFailedException(String.format("The parsed shapefile contains links with linkTypes not recognized: %s", lnkTypeString));
+        }
+        // there are irrelevant links in shapefile
+        if (!lnkTypeEntry.relevant){
+            return null;
+        }
+
+        LinkDescriptor desc = new LinkDescriptor();
+        desc.visumId = feature.getAttribute(schema.id).toString();
+        desc.fromNodeId = feature.getAttribute(schema.fromNode).toString();
+        desc.toNodeId = feature.getAttribute(schema.toNode).toString();
+
+        if (!VisumFeatureSchema.isNull(feature, schema.length1stChoice)) {
+            desc.length = VisumFeatureSchema.readDouble(feature, schema.length1stChoice, Double.NaN);
+        } else {
+            desc.length = VisumFeatureSchema.readRequiredDouble(feature, schema.length2ndChoice, LENGTH_ATTR_2ND_CHOICE)*1000; // Precondition: length in m
+        }
+        desc.freespeed = VisumFeatureSchema.readRequiredDouble(feature, schema.maxSpeed, MAX_SPEED_ATTR) / 3.6; // Precondition: speed in km/h
+
+        // add further attributes
+        // add width
+        desc.width = VisumFeatureSchema.readDouble(feature, schema.width, stdWidth);
 
-            case Stufen_abwaerts:
-                v = 0.6;
-                d = 1.2;
-                break;
+        // add link type
+        desc.linkType = lnkTypeEntry.type;
 
+        // add osm id and name; both repeat across the links of one osm way, so equal values share one String
+        desc.osmId = schema.pooled(VisumFeatureSchema.readString(feature, schema.osmId, ""));
+        desc.osmName = schema.pooled(VisumFeatureSchema.readString(feature, schema.osmName, ""));
+
+        // calculate the flow capacity (based on link type and width)
+        calculateLinkTypeSpecificAttributes(desc, schema.capacityTable);
+        return desc;
+    }
+
+
+    /**
+     * @return the descriptor a link was created from; links of unchanged features need no feature to be described
+     */
+    private static LinkDescriptor describeLink(Link lnk) {
+        LinkDescriptor desc = new LinkDescriptor();
+        String id = lnk.getId().toString();
+        desc.visumId = id.substring(0, id.lastIndexOf('_'));
+        desc.fromNodeId = lnk.getFromNode().getId().toString();
+        desc.toNodeId = lnk.getToNode().getId().toString();
+        desc.length = lnk.getLength();
+        desc.freespeed = lnk.getFreespeed();
+        desc.capacity = lnk.getCapacity();
+        desc.width = ((Number) lnk.getAttributes().getAttribute("width")).doubleValue();
+        desc.linkType = LinkType.valueOf((String) lnk.getAttributes().getAttribute("linkType"));
+        desc.osmId = (String) lnk.getAttributes().getAttribute("osmID");
+        desc.osmName = (String) lnk.getAttributes().getAttribute("osmName");
+        return desc;
+    }
 
 
-            default:
-                v = 1.3;
-                d = 1.0;
+    private static void commitLinks(Network net, List<LinkDescriptor> descriptors, Set<String> linkModes) {
+        for (LinkDescriptor desc: descriptors) {
+            // create basic link
+            Link lnk = createLink(net, desc.linkId, desc.fromNodeId, desc.toNodeId, desc.length, desc.freespeed, linkModes);
+            applyLinkDescriptor(lnk, desc, linkModes);
+
+            // add to network
+            net.addLink(lnk);
         }
+    }
+
+
+    private static void applyLinkDescriptor(Link lnk, LinkDescriptor desc, Set<String> linkModes) {
+        lnk.setLength(desc.length);
+        lnk.setFreespeed(desc.freespeed);
+        lnk.setCapacity(desc.capacity);
+        lnk.setAllowedModes(linkModes);
+        lnk.getAttributes().putAttribute("width", desc.width);
+        lnk.getAttributes().putAttribute("linkType", desc.linkType.name()); // shared enum constant name, no String per link
+        lnk.getAttributes().putAttribute("osmID", desc.osmId);
+        lnk.getAttributes().putAttribute("osmName", desc.osmName);
+    }
+
+
+    private static boolean matchesLinkDescriptor(Link lnk, LinkDescriptor desc, Set<String> linkModes) {
+        return lnk.getFromNode().getId().toString().equals(desc.fromNodeId)
+                && lnk.getToNode().getId().toString().equals(desc.toNodeId)
+                && lnk.getLength() == desc.length
+                && lnk.getFreespeed() == desc.freespeed
+                && lnk.getCapacity() == desc.capacity
+                && lnk.getAllowedModes().equals(linkModes)
+                && Objects.equals(lnk.getAttributes().getAttribute("width"), desc.width)
+                && desc.linkType.name().equals(lnk.getAttributes().getAttribute("linkType"))
+                && desc.osmId.equals(lnk.getAttributes().getAttribute("osmID"))
+                && desc.osmName.equals(lnk.getAttributes().getAttribute("osmName"));
+    }
+
+
+    /**
+     * Like createNetwork, but incremental: the network converted by the previous call with the same netOutput is
+     * patched instead of converting all features again.
+     *
+     * Next to netOutput, every call keeps the converted network as binary file (see VisumNetworkCache) and the state
+     * of the shapefiles (see VisumNetworkState). The next call hashes the imported attributes of every feature and
+     * compares them with the state before anything is converted. Only nodes and links whose features were added,
+     * changed or removed are touched; link descriptors are only built for added and changed link features. Links
+     * sharing a Visum NO with a changed feature get their directional ids re-assigned (see assignDirectionalLinkIds).
+     *
+     * Without a state, with different importer settings or if a link file contains several features with the same
+     * NO, FROMNODENO and TONODENO, the shapefiles are converted from scratch.
+     */
+    public static Network updateNetwork(Path nodeShpFile, Path linkShpFile, Set<String> linkModes, VisumNetworkConfigGroup configGroup, Path netOutput){
+        return patchNetwork(nodeShpFile, linkShpFile, linkModes, configGroup, netOutput).network;
+    }
+
+
+    static NetworkPatch patchNetwork(Path nodeShpFile, Path linkShpFile, Set<String> linkModes, VisumNetworkConfigGroup configGroup, Path netOutput){
+        log.info("Start updating network");
+        Path stateFile = VisumNetworkState.getStateFile(netOutput);
+        Path networkFile = VisumNetworkState.getNetworkFile(netOutput);
+        String settings = VisumNetworkCache.describeSettings(linkModes, configGroup);
 
-        double cap;
-        if (lnkType.name().equals("Fussweg_Gleiszugang")){
-            // "Gleiszugang" shall have maximum capacity so that combustion effects occur later on
-            cap = maxCapacity;
+        NetworkPatch patch = null;
+        if (Files.exists(stateFile) && Files.exists(networkFile)) {
+            VisumNetworkState previous = VisumNetworkState.read(stateFile);
+            if (previous.settings.equals(settings)) {
+                patch = patchNetwork(previous, nodeShpFile, linkShpFile, linkModes, configGroup, networkFile);
+            } else {
+                log.info("The importer settings changed since the previous conversion");
+            }
+        }
+        if (patch == null) {
+            log.info("Converting from scratch");
+            Network net = createNetwork(nodeShpFile, linkShpFile, linkModes, configGroup);
+            patch = new NetworkPatch(net, computeState(net, nodeShpFile, linkShpFile, configGroup, settings));
+        } else {
+            log.info(String.format("Nodes: %d added, %d changed, %d removed", patch.addedNodes, patch.changedNodes, patch.removedNodes));
+            log.info(String.format("Links: %d features converted; %d links added, %d changed, %d removed",
+                    patch.describedLinks, patch.addedLinks, patch.changedLinks, patch.removedLinks));
+            validate(patch.network, linkModes);
+        }
 
+        if (patch.state != null) {
+            writeNetworkCache(patch.network, networkFile);
+            patch.state.write(stateFile);
         } else {
-            cap = calculateLinkFlowCapacity(v, d, stdWidth, PLATFORM_CLEARANCE_TIME, CAR_SPACE);
+            // the next call cannot patch this network, so it must not find the state of an older one
+            deleteIfExists(stateFile);
+        }
+        return patch;
+    }
+
+
+    /**
+     * @return the patched network, or null if the link features cannot be matched by NO, FROMNODENO and TONODENO
+     */
+    private static NetworkPatch patchNetwork(VisumNetworkState previous, Path nodeShpFile, Path linkShpFile, Set<String> linkModes,
+                                             VisumNetworkConfigGroup configGroup, Path networkFile){
+        VisumNetworkState next = new VisumNetworkState(previous.settings);
+
+        // find the changes before the network is touched
+        List<NodeFeature> changedNodes = new ArrayList<>();
+        readNodes(nodeShpFile, (nodeId, longName, x, y) -> {
+            long hash = VisumNetworkState.hash(nodeId, longName, x, y);
+            next.nodeHashes.put(nodeId, hash);
+            Long previousHash = previous.nodeHashes.get(nodeId);
+            if (previousHash == null || previousHash != hash) {
+                changedNodes.add(new NodeFeature(nodeId, longName, x, y));
+            }
+        });
+        LinkDiff diff = diffLinks(previous, next, linkShpFile, configGroup);
+        if (diff == null) {
+            return null;
+        }
+
+        Network net = VisumNetworkCache.read(networkFile);
+        NetworkPatch patch = new NetworkPatch(net, next);
+
+        // nodes
+        for (NodeFeature node: changedNodes) {
+            Node nd = net.getNodes().get(Id.createNodeId(node.nodeId));
+            if (nd == null) {
+                createNode(net, node.nodeId, node.longName, node.x, node.y);
+                patch.addedNodes++;
+            } else {
+                nd.setCoord(new Coord(node.x, node.y));
+                nd.getAttributes().putAttribute("longName", node.longName);
+                patch.changedNodes++;
+            }
+        }
+
+        // links: describe the added and changed features only
+        LinkDescriptor[] descriptors;
+        ForkJoinPool pool = NUMBER_OF_THREADS > 1 ? new ForkJoinPool(NUMBER_OF_THREADS) : null;
+        try {
+            descriptors = describeLinks(diff.changedFeatures, diff.schema, pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        patch.describedLinks = descriptors.length;
+        Map<String, LinkDescriptor> changedDescriptors = new HashMap<>();
+        for (int i = 0; i < descriptors.length; i++) {
+            changedDescriptors.put(diff.changedKeys.get(i), descriptors[i]);
+        }
+
+        // all links of an affected Visum NO, with their (new) descriptors; unchanged links are described by themselves
+        Map<LinkDescriptor, String> keys = new IdentityHashMap<>();
+        List<LinkDescriptor> affectedLinks = new ArrayList<>();
+        for (Map.Entry<String, VisumNetworkState.LinkEntry> entry: next.links.entrySet()) {
+            if (!diff.affectedVisumIds.contains(VisumNetworkState.getVisumId(entry.getKey()))) {
+                continue;
+            }
+            LinkDescriptor desc = changedDescriptors.containsKey(entry.getKey()) ? changedDescriptors.get(entry.getKey())
+                    : entry.getValue().linkId == null ? null : describeLink(net.getLinks().get(Id.createLinkId(entry.getValue().linkId)));
+            if (desc != null) {
+                keys.put(desc, entry.getKey());
+                affectedLinks.add(desc);
+            }
+        }
+        assignDirectionalLinkIds(affectedLinks);
+
+        Set<Id<Link>> linkIds = new HashSet<>();
+        for (LinkDescriptor desc: affectedLinks) {
+            linkIds.add(desc.linkId);
+            next.links.put(keys.get(desc), new VisumNetworkState.LinkEntry(next.links.get(keys.get(desc)).hash, desc.linkId.toString()));
+            Link lnk = net.getLinks().get(desc.linkId);
+            if (lnk != null && matchesLinkDescriptor(lnk, desc, linkModes)) {
+                continue;
+            }
+            patch.touchedLinks.add(desc.linkId);
+            if (lnk != null && lnk.getFromNode().getId().toString().equals(desc.fromNodeId)
+                    && lnk.getToNode().getId().toString().equals(desc.toNodeId)) {
+                applyLinkDescriptor(lnk, desc, linkModes);
+                patch.changedLinks++;
+                continue;
+            }
+            if (lnk != null) {
+                // link was re-connected
+                net.removeLink(lnk.getId());
+                patch.changedLinks++;
+            } else {
+                patch.addedLinks++;
+            }
+            Link newLnk = createLink(net, desc.linkId, desc.fromNodeId, desc.toNodeId, desc.length, desc.freespeed, linkModes);
+            applyLinkDescriptor(newLnk, desc, linkModes);
+            net.addLink(newLnk);
+        }
+        for (Map.Entry<String, VisumNetworkState.LinkEntry> entry: previous.links.entrySet()) {
+            if (entry.getValue().linkId == null || !diff.affectedVisumIds.contains(VisumNetworkState.getVisumId(entry.getKey()))) {
+                continue;
+            }
+            Id<Link> id = Id.createLinkId(entry.getValue().linkId);
+            if (!linkIds.contains(id) && net.removeLink(id) != null) {
+                patch.touchedLinks.add(id);
+                patch.removedLinks++;
+            }
+        }
 
-            // if in any case capacity calc returns unrealistic small value, minimum capacity is applied
-            if (cap < minCapacity){
-                cap = minCapacity;
+        // removing a node removes its links as well
+        for (String nodeId: previous.nodeHashes.keySet()) {
+            if (!next.nodeHashes.containsKey(nodeId)) {
+                net.removeNode(Id.createNodeId(nodeId));
+                patch.removedNodes++;
             }
+        }
+        return patch;
+    }
+
 
+    /**
+     * Hashes every link feature and compares it with the previous state; only added and changed features are kept.
+     *
+     * @return the differences, or null if several features share the same NO, FROMNODENO and TONODENO
+     */
+    private static LinkDiff diffLinks(VisumNetworkState previous, VisumNetworkState next, Path linkShpFile, VisumNetworkConfigGroup configGroup) {
+        LinkCapacityTable capacityTable = new LinkCapacityTable(configGroup);
+        LinkDiff diff = readFeatures(linkShpFile, featureType -> new LinkDiff(new LinkSchema(featureType, capacityTable), previous, next, true));
+        if (diff.ambiguous) {
+            log.warn(String.format("%s contains several links with the same %s, %s and %s, which cannot be matched to the previous conversion",
+                    linkShpFile, LINK_ID_ATTR, FROM_NODE_ID_ATTR, TO_NODE_ID_ATTR));
+            return null;
         }
+        for (String key: previous.links.keySet()) {
+            if (!next.links.containsKey(key)) {
+                diff.affectedVisumIds.add(VisumNetworkState.getVisumId(key));
+            }
+        }
+        return diff;
+    }
+
 
-        v = v*1.3; // rise free flow speed by 30% to make passing effects possible
-        lnk.setFreespeed(v);
-        lnk.setCapacity(cap);
+    /**
+     * @return the state of a network that was just converted from the shapefiles, or null if it cannot be patched later
+     */
+    private static VisumNetworkState computeState(Network net, Path nodeShpFile, Path linkShpFile, VisumNetworkConfigGroup configGroup, String settings) {
+        VisumNetworkState state = new VisumNetworkState(settings);
+        readNodes(nodeShpFile, (nodeId, longName, x, y) -> state.nodeHashes.put(nodeId, VisumNetworkState.hash(nodeId, longName, x, y)));
+
+        Map<String, String> linkIds = new HashMap<>();
+        for (Link lnk: net.getLinks().values()) {
+            String id = lnk.getId().toString();
+            linkIds.put(VisumNetworkState.createLinkKey(id.substring(0, id.lastIndexOf('_')),
+                    lnk.getFromNode().getId().toString(), lnk.getToNode().getId().toString()), id);
+        }
+        LinkDiff diff = readFeatures(linkShpFile, featureType -> new LinkDiff(
+                new LinkSchema(featureType, new LinkCapacityTable(configGroup)), new VisumNetworkState(settings), state, false));
+        if (diff.ambiguous) {
+            return null;
+        }
+        for (Map.Entry<String, VisumNetworkState.LinkEntry> entry: state.links.entrySet()) {
+            entry.setValue(new VisumNetworkState.LinkEntry(entry.getValue().hash, linkIds.get(entry.getKey())));
+        }
+        return state;
+    }
+
+
+    private static void deleteIfExists(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 
-    private static double calculateLinkFlowCapacity(double v, double d, double b_z, double t, double carSpace) {
+    private static void calculateLinkTypeSpecificAttributes(LinkDescriptor desc, LinkCapacityTable capacityTable){
+        desc.freespeed = capacityTable.getFreespeed(desc.linkType);
+        desc.capacity = capacityTable.getCapacity(desc.linkType, desc.width);
+    }
+
+
+    static double calculateLinkFlowCapacity(double v, double d, double b_z, double g, double t, double carSpace) {
         /* The following ril 813 rule is applied:
          * b_z = (Q_A / (v*d*t)) + g
          * with b_z := access width
@@ -244,18 +684,17 @@ public class CreateNetworkFromVisumShpFile {
          * Q_A = (b_z - g) *v*d*t
          */
 
-        double g = 0.8;
         double cap_ril813 = (b_z-g)*v*d*t;
         double people2CarFactor = d/carSpace;
         return (cap_ril813 * people2CarFactor)*(3600/t); // P/t => P/h
     }
 
 
-    private static Link createLink(Network net, String linkId, String n1, String n2, double length, double maxSpeed, Set<String> linkModes) {
+    private static Link createLink(Network net, Id<Link> linkId, String n1, String n2, double length, double maxSpeed, Set<String> linkModes) {
         Node node1 = net.getNodes().get(Id.createNodeId(n1));
         Node node2 = net.getNodes().get(Id.createNodeId(n2));
 
-        Link lnk = net.getFactory().createLink(Id.createLinkId(linkId), node1, node2);
+        Link lnk = net.getFactory().createLink(linkId, node1, node2);
         lnk.setLength(length); // length in m
         lnk.setFreespeed(maxSpeed);
         lnk.setAllowedModes(linkModes);
@@ -263,37 +702,51 @@ public class CreateNetworkFromVisumShpFile {
     }
 
 
-    private static void performCRSCheck(Path shpFile){
-        ShapeFileReader shapeFileReader = new ShapeFileReader();
-        shapeFileReader.readFileAndInitialize(String.valueOf(shpFile));
+    private static void performCRSCheck(CoordinateReferenceSystem crs){
         String crsAssMessage = String.format("The parsed shapefile does not have the correct CRS:  %s", COORD_REF_SYS);
-        Set<ReferenceIdentifier> referenceIdentifierSet = shapeFileReader.getCoordinateSystem().getCoordinateSystem().getIdentifiers();
+        Set<ReferenceIdentifier> referenceIdentifierSet = crs.getCoordinateSystem().getIdentifiers();
         for(var referenceIdentifier: referenceIdentifierSet){
             Assert.isTrue(referenceIdentifier.getCode().equals(COORD_REF_SYS.split(":")[1]), crsAssMessage);
         }
     }
 
-    private static double readShpFileAttributeAsDouble(SimpleFeature feature, String attributeName, double valueIfNull){
-        double value;
-        if (feature.getAttribute(attributeName) != null) {
-            value = Double.parseDouble(feature.getAttribute(attributeName).toString());
-        } else {
-            value = valueIfNull;
-        }
-        return value;
-    }
-
-    private static String readShpFileAttributeAsString(SimpleFeature feature, String attributeName, String valueIfNull){
-        String value;
-        if (feature.getAttribute(attributeName) != null) {
-            value = feature.getAttribute(attributeName).toString();
-        } else {
-            value = valueIfNull;
+    private static <C extends Consumer<SimpleFeature>> C readFeatures(Path shpFile, Function<SimpleFeatureType, C> consumerFactory){
+        // the shapefile is opened exactly once: the CRS is taken from the schema of the open data store
+        // (i.e. from the .prj file) before the features are read in the same pass
+        FileDataStore store = null;
+        try {
+            store = FileDataStoreFinder.getDataStore(shpFile.toFile());
+            SimpleFeatureType featureType = store.getSchema();
+            performCRSCheck(featureType.getCoordinateReferenceSystem());
+            // attribute indices are resolved once per file before the first feature is read
+            C consumer = consumerFactory.apply(featureType);
+
+            if (STREAMING_INGEST) {
+                // walk the feature iterator so that no more than the current feature needs to be held in memory
+                try (SimpleFeatureIterator it = store.getFeatureSource().getFeatures().features()) {
+                    while (it.hasNext()) {
+                        consumer.accept(it.next());
+                    }
+                }
+            } else {
+                List<SimpleFeature> features = new ArrayList<>();
+                try (SimpleFeatureIterator it = store.getFeatureSource().getFeatures().features()) {
+                    while (it.hasNext()) {
+                        features.add(it.next());
+                    }
+                }
+                features.forEach(consumer);
+            }
+            return consumer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (store != null) {
+                store.dispose();
+            }
         }
-        return value;
     }
 
-
     public static void writeNetwork(Network net, Path outputPath) {
         log.info(String.format("Writing network to: %s", outputPath));
         new NetworkWriter(net).write(outputPath.toString());
@@ -303,7 +756,13 @@ public class CreateNetworkFromVisumShpFile {
     }
 
 
-    private enum LinkType{
+    public static void writeNetworkCache(Network net, Path outputPath) {
+        log.info(String.format("Writing binary network to: %s", outputPath));
+        VisumNetworkCache.write(net, outputPath);
+    }
+
+
+    enum LinkType{
         Fussweg_Gleiszugang,
         Fussweg_Zentrallinie,
         Stufen_aufwaerts,
@@ -318,6 +777,254 @@ public class CreateNetworkFromVisumShpFile {
         }
 
 
+    @FunctionalInterface
+    private interface NodeHandler {
+        void handle(String nodeId, String longName, double x, double y);
+    }
+
+
+    private static final class NodeFeature {
+        private final String nodeId;
+        private final String longName;
+        private final double x;
+        private final double y;
+
+        NodeFeature(String nodeId, String longName, double x, double y) {
+            this.nodeId = nodeId;
+            this.longName = longName;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+
+    static final class NetworkPatch {
+        final Network network;
+        // null if the network cannot be patched by the next call
+        final VisumNetworkState state;
+        // ids of the links that were added, changed or removed
+        final Set<Id<Link>> touchedLinks = new HashSet<>();
+        int describedLinks;
+        int addedNodes;
+        int changedNodes;
+        int removedNodes;
+        int addedLinks;
+        int changedLinks;
+        int removedLinks;
+
+        NetworkPatch(Network network, VisumNetworkState state) {
+            this.network = network;
+            this.state = state;
+        }
+    }
+
+
+    /**
+     * Compares the hash of every link feature with the previous state and collects the added and changed features.
+     */
+    private static final class LinkDiff implements Consumer<SimpleFeature> {
+        private final LinkSchema schema;
+        private final VisumNetworkState previous;
+        private final VisumNetworkState next;
+        private final List<SimpleFeature> changedFeatures = new ArrayList<>();
+        private final List<String> changedKeys = new ArrayList<>();
+        private final Set<String> affectedVisumIds = new HashSet<>();
+        // false if only the hashes are needed; the changed features are not kept then
+        private final boolean collectChanges;
+        private boolean ambiguous = false;
+
+        LinkDiff(LinkSchema schema, VisumNetworkState previous, VisumNetworkState next, boolean collectChanges) {
+            this.schema = schema;
+            this.previous = previous;
+            this.next = next;
+            this.collectChanges = collectChanges;
+        }
+
+        @Override
+        public void accept(SimpleFeature feature) {
+            String visumId = feature.getAttribute(schema.id).toString();
+            String key = VisumNetworkState.createLinkKey(visumId, feature.getAttribute(schema.fromNode).toString(),
+                    feature.getAttribute(schema.toNode).toString());
+            // all attributes describeLink reads
+            long hash = VisumNetworkState.hash(key,
+                    read(feature, schema.length1stChoice), read(feature, schema.length2ndChoice), read(feature, schema.width),
+                    read(feature, schema.maxSpeed), read(feature, schema.linkType), read(feature, schema.osmId), read(feature, schema.osmName));
+
+            VisumNetworkState.LinkEntry entry = previous.links.get(key);
+            if (entry != null && entry.hash == hash) {
+                ambiguous |= next.links.put(key, entry) != null;
+                return;
+            }
+            ambiguous |= next.links.put(key, new VisumNetworkState.LinkEntry(hash, null)) != null;
+            if (collectChanges) {
+                changedFeatures.add(feature);
+                changedKeys.add(key);
+                affectedVisumIds.add(visumId);
+            }
+        }
+
+        private static Object read(SimpleFeature feature, int index) {
+            return index == VisumFeatureSchema.ABSENT ? null : feature.getAttribute(index);
+        }
+    }
+
+
+    /**
+     * Attribute indices of the node shapefile, resolved once per file.
+     */
+    private static final class NodeSchema {
+        private final int id;
+        private final int longName;
+
+        NodeSchema(SimpleFeatureType featureType) {
+            VisumFeatureSchema schema = new VisumFeatureSchema(featureType);
+            this.id = schema.resolveRequired(NODE_ID_ATTR);
+            this.longName = schema.resolveRequired(NODE_LN_ATTR);
+        }
+    }
+
+
+    /**
+     * Attribute indices and lookup tables of the link shapefile, resolved once per file.
+     */
+    private static final class LinkSchema {
+        private final int id;
+        private final int fromNode;
+        private final int toNode;
+        private final int length1stChoice;
+        private final int length2ndChoice;
+        private final int width;
+        private final int maxSpeed;
+        private final int linkType;
+        private final int osmId;
+        private final int osmName;
+        private final Map<String, LinkTypeEntry> linkTypes = new HashMap<>();
+        private final ConcurrentMap<String, String> stringPool = new ConcurrentHashMap<>();
+        private final LinkCapacityTable capacityTable;
+
+        LinkSchema(SimpleFeatureType featureType, LinkCapacityTable capacityTable) {
+            this.capacityTable = capacityTable;
+            VisumFeatureSchema schema = new VisumFeatureSchema(featureType);
+            this.id = schema.resolveRequired(LINK_ID_ATTR);
+            this.fromNode = schema.resolveRequired(FROM_NODE_ID_ATTR);
+            this.toNode = schema.resolveRequired(TO_NODE_ID_ATTR);
+            this.length1stChoice = schema.resolveOptional(LENGTH_ATTR_1ST_CHOICE);
+            this.length2ndChoice = length1stChoice == VisumFeatureSchema.ABSENT ?
+                    schema.resolveRequired(LENGTH_ATTR_2ND_CHOICE) : schema.resolveOptional(LENGTH_ATTR_2ND_CHOICE);
+            this.width = schema.resolveOptional(WIDTH_ATTR);
+            this.maxSpeed = schema.resolveRequired(MAX_SPEED_ATTR);
+            this.linkType = schema.resolveRequired(LINK_TYPE_ATTR);
+            this.osmId = schema.resolveOptional(OSM_ID_ATTR);
+            this.osmName = schema.resolveOptional(OSM_NAME_ATTR);
+
+            // one hash lookup per link decides on both the LinkType and whether the link is imported at all
+            for (LinkType type: LinkType.values()) {
+                linkTypes.put(type.name(), new LinkTypeEntry(type, !typeNotRelevant.contains(type.name())));
+            }
+            for (String type: typeNotRelevant) {
+                linkTypes.putIfAbsent(type, new LinkTypeEntry(null, false));
+            }
+        }
+
+        String pooled(String value) {
+            String pooledValue = stringPool.putIfAbsent(value, value);
+            return pooledValue == null ? value : pooledValue;
+        }
+    }
+
+
+    private static final class LinkTypeEntry {
+        private final LinkType type;
+        private final boolean relevant;
+
+        LinkTypeEntry(LinkType type, boolean relevant) {
+            this.type = type;
+            this.relevant = relevant;
+        }
+    }
+
+
+    /**
+     * Collects link features until a batch is full and then describes and commits them.
+     */
+    private static final class LinkBatcher implements Consumer<SimpleFeature> {
+        private final LinkSchema schema;
+        private final ForkJoinPool pool;
+        private final Consumer<LinkDescriptor[]> committer;
+        private final List<SimpleFeature> batch = new ArrayList<>(LINK_BATCH_SIZE);
+
+        LinkBatcher(LinkSchema schema, ForkJoinPool pool, Consumer<LinkDescriptor[]> committer) {
+            this.schema = schema;
+            this.pool = pool;
+            this.committer = committer;
+        }
+
+        @Override
+        public void accept(SimpleFeature feature) {
+            batch.add(feature);
+            if (batch.size() == LINK_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            committer.accept(describeLinks(batch, schema, pool));
+            batch.clear();
+        }
+    }
+
+
+    /**
+     * Everything that is derived from one link feature before the link is added to the network.
+     * Descriptors are built independently of each other (and of the network), which allows to build them in parallel.
+     */
+    private static final class LinkDescriptor {
+        private String visumId;
+        private Id<Link> linkId;
+        private String fromNodeId;
+        private String toNodeId;
+        private double length;
+        private double freespeed;
+        private double capacity;
+        private double width;
+        private LinkType linkType;
+        private String osmId;
+        private String osmName;
+    }
+
+
+    private static final class DescribeLinksTask extends RecursiveAction {
+        private static final int THRESHOLD = 1024;
+
+        private final List<SimpleFeature> features;
+        private final LinkSchema schema;
+        private final LinkDescriptor[] descriptors;
+        private final int from;
+        private final int to;
+
+        DescribeLinksTask(List<SimpleFeature> features, LinkSchema schema, LinkDescriptor[] descriptors, int from, int to) {
+            this.features = features;
+            this.schema = schema;
+            this.descriptors = descriptors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    descriptors[i] = describeLink(features.get(i), schema);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DescribeLinksTask(features, schema, descriptors, from, mid),
+                        new DescribeLinksTask(features, schema, descriptors, mid, to));
+            }
+        }
+    }
+
+
     private static class Input {
         @Parameter(names = "-ndShpFile")
         private String ndShpFile;
@@ -327,5 +1034,20 @@ public class CreateNetworkFromVisumShpFile {
 
         @Parameter(names = "-netOutput")
         private String netOutput;
+
+        @Parameter(names = "-config")
+        private String config;
+
+        @Parameter(names = "-incremental", description = "Patch the network of the previous incremental conversion to -netOutput instead of converting from scratch")
+        private boolean incremental = false;
+
+        @Parameter(names = "-cacheDir")
+        private String cacheDir;
+
+        @Parameter(names = "-threads")
+        private int threads = 1;
+
+        @Parameter(names = "-validate", description = "Check the topology of the network and log the problems found")
+        private boolean validate = false;
     }
 }
@@ -3,42 +3,94 @@ package org.matsim.ikp.prepare;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.apache.log4j.Logger;
-import org.matsim.api.core.v01.population.Population;
-import org.matsim.api.core.v01.population.PopulationFactory;
-import org.matsim.api.core.v01.population.PopulationWriter;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.*;
 import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.population.PopulationUtils;
 
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/** @author: davidwedekind */
 
 public class CreatePopulationFileFromDemand {
 
+    /**
+     * This class creates a matsim population from a demand file (see DemandCsvReader for the format)
+     * and the station network created by CreateNetworkFromVisumShpFile.
+     *
+     * Every demand row is expanded into 'passengers' persons walking from the origin to the destination node.
+     * Their departures are spread evenly over the row's time slice. Rows are read in batches and expanded by
+     * a ParallelPopulationGenerator, so the population does not depend on NUMBER_OF_THREADS.
+     */
+
     private static final Logger log = Logger.getLogger(CreatePopulationFileFromDemand.class);
 
+    // SETTINGS ...
+    public static String LEG_MODE = "walk_1_39";
+    // number of threads expanding demand rows into persons
+    public static int NUMBER_OF_THREADS = 1;
+
     public static void main(String[] args) {
         CreatePopulationFileFromDemand.Input input = new CreatePopulationFileFromDemand.Input();
         JCommander.newBuilder().addObject(input).build().parse(args);
         String csvDemandFile = input.csvDemandFile;
+        String network = input.network;
         String popOutput = input.popOutput;
 
         log.info("Input demand file path: " + csvDemandFile);
+        log.info("Input network file path: " + network);
         log.info("Output populations file path: " + popOutput);
+        NUMBER_OF_THREADS = input.threads;
 
-
-        Population pop = createPopulation();
-        writePopulation(pop, Path.of(popOutput));
+        streamPopulation(Path.of(csvDemandFile), NetworkUtils.readNetwork(network), Path.of(popOutput));
     }
 
 
-
-
-    public static Population createPopulation() {
+    /**
+     * The plans share plan elements (see PlanTemplates); pass the population to PlanTemplates.detach before modifying
+     * or simulating it.
+     */
+    public static Population createPopulation(Path csvDemandFile, Network net) {
+        log.info("Start creating population");
         Population pop = PopulationUtils.createPopulation(ConfigUtils.createConfig());
-        PopulationFactory fac = pop.getFactory();
+        long rows = createPersons(csvDemandFile, net, pop.getFactory(), pop::addPerson);
 
+        log.info(String.format("Created %d persons from %d demand rows", pop.getPersons().size(), rows));
         return pop;
     }
 
+    /**
+     * Writes the persons to the plans file while they are generated instead of building the population in memory first.
+     */
+    public static void streamPopulation(Path csvDemandFile, Network net, Path path) {
+        log.info("Start streaming population");
+        try (StreamingPopulationSink sink = new StreamingPopulationSink(path)) {
+            long rows = createPersons(csvDemandFile, net, PopulationUtils.getFactory(), sink);
+            sink.finish();
+            log.info(String.format("Created persons from %d demand rows", rows));
+        }
+    }
+
+    private static long createPersons(Path csvDemandFile, Network net, PopulationFactory fac, Consumer<Person> persons) {
+        Demand demand = new Demand(csvDemandFile, net);
+        PlanTemplates templates = new PlanTemplates(fac);
+        // the expansion does not draw random numbers, so the seed of the generator does not matter
+        try (ParallelPopulationGenerator<DemandGroup> generator = new ParallelPopulationGenerator<>(0, NUMBER_OF_THREADS,
+                (group, random, out) -> demand.createPersons(fac, templates, group, out), persons)) {
+            long rows = demand.readDemandFromCsv(record -> generator.add(demand.createGroup(record)));
+            generator.flush();
+            log.info(String.format("Plans share %d distinct activities and legs", templates.getNumberOfSharedElements()));
+            return rows;
+        }
+    }
+
     public static void writePopulation(Population pop, Path path) {
         log.info("Writing population to " + path);
         new PopulationWriter(pop).write(path.toString());
@@ -47,27 +99,106 @@ public class CreatePopulationFileFromDemand {
         log.info("Finished \uD83C\uDF89");
     }
 
-    private class Demand{
 
-        Demand(Path csv){
-            readDemandFromCsv(csv);
+    static final class Demand {
+
+        private final Path csv;
+        private final Network net;
+        // running person number per person type and train
+        private final Map<String, int[]> personCounters = new HashMap<>();
+
+        Demand(Path csv, Network net) {
+            this.csv = csv;
+            this.net = net;
         }
 
-        private void readDemandFromCsv(Path csv){
-            
+        /**
+         * Streams the demand rows to the handler without keeping them in memory.
+         *
+         * @return the number of rows read
+         */
+        long readDemandFromCsv(Consumer<DemandCsvReader.Record> handler) {
+            log.info("Reading demand from " + csv);
+            return DemandCsvReader.read(csv, handler);
+        }
+
+        /**
+         * Resolves the nodes of the row and reserves its person numbers; runs on the reading thread in row order.
+         */
+        DemandGroup createGroup(DemandCsvReader.Record record) {
+            Coord origin = getCoord(record, record.origin);
+            Coord destination = getCoord(record, record.destination);
+            String idPrefix = record.personType.getIdPrefix() + "_" + record.trainId + "_";
+            int[] counter = personCounters.computeIfAbsent(idPrefix, k -> new int[1]);
+            DemandGroup group = new DemandGroup(record, idPrefix, counter[0], origin, destination);
+            counter[0] += record.passengers;
+            return group;
+        }
 
+        /**
+         * Expands a row into persons; runs in parallel and therefore only reads the group.
+         */
+        void createPersons(PopulationFactory fac, PlanTemplates templates, DemandGroup group, Consumer<Person> persons) {
+            DemandCsvReader.Record record = group.record;
+            double sliceLength = record.to - record.from;
+            for (int i = 0; i < record.passengers; i++) {
+                double departure = record.from + sliceLength * (i + 0.5) / record.passengers;
+                persons.accept(createPerson(fac, templates, record.personType, record.trainId, group.idPrefix + (group.firstPersonNumber + i),
+                        group.origin, group.destination, departure));
+            }
+        }
+
+        private Coord getCoord(DemandCsvReader.Record record, String nodeId) {
+            Node node = net.getNodes().get(Id.createNodeId(nodeId));
+            if (node == null) {
+                throw new IllegalArgumentException(String.format("%s, line %d: node %s is not part of the network", csv, record.lineNumber, nodeId));
+            }
+            return node.getCoord();
         }
     }
 
+
+    static final class DemandGroup {
+        final DemandCsvReader.Record record;
+        final String idPrefix;
+        final int firstPersonNumber;
+        final Coord origin;
+        final Coord destination;
+
+        DemandGroup(DemandCsvReader.Record record, String idPrefix, int firstPersonNumber, Coord origin, Coord destination) {
+            this.record = record;
+            this.idPrefix = idPrefix;
+            this.firstPersonNumber = firstPersonNumber;
+            this.origin = origin;
+            this.destination = destination;
+        }
+    }
+
+
+    static Person createPerson(PopulationFactory fac, PlanTemplates templates, PersonType type, String trainId, String id, Coord origin, Coord destination, double departure) {
+        Person person = fac.createPerson(Id.createPersonId(id));
+        person.getAttributes().putAttribute("subpopulation", type.toString());
+        person.getAttributes().putAttribute(CreatePopulationFromTimetable.TRAIN_ID_ATTRIBUTE, trainId);
+
+        // create a plan with chain activity -> leg -> activity
+        Plan plan = templates.createPlan(type.getOriginActivity(), origin, departure, LEG_MODE,
+                type.getDestinationActivity(), destination, Double.NaN);
+        person.addPlan(plan);
+        return person;
+    }
+
+
     private static class Input {
         @Parameter(names = "-csvDemandFile")
         private String csvDemandFile;
 
+        @Parameter(names = "-network")
+        private String network;
+
         @Parameter(names = "-popOutput")
         private String popOutput;
-    }
-
-
-
 
+        @Parameter(names = "-threads")
+        private int threads = 1;
+    }
 }
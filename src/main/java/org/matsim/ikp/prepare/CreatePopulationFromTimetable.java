@@ -0,0 +1,292 @@
+package org.matsim.ikp.prepare;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/** @author: davidwedekind */
+
+public class CreatePopulationFromTimetable {
+
+    /**
+     * This class creates a matsim population from a timetable with car-by-car passenger loads (see TimetableCsvReader
+     * for the format) and a station network with door nodes 'tr_[track]_[door]' and exit nodes 'ex_*'.
+     *
+     * For every car of a train
+     * - 'alighting' ZA agents walk from a door of the car to an exit, leaving the train within ALIGHTING_DURATION after arrival,
+     * - 'transferring' UM agents walk from a door of the car to a door on another track, leaving the train like ZA agents,
+     * - 'boarding' QE agents walk from an exit to a door of the car, entering the station within BOARDING_WINDOW before
+     *   departure but at least BOARDING_BUFFER before it.
+     * The doors of a track are spread evenly over the length of the train, so every car is served by the doors in its
+     * section of the platform; passengers choose one of them at random. Exits are the dead-end 'ex_*' nodes.
+     *
+     * The timetable is read lazily train by train and the cars are expanded by a ParallelPopulationGenerator,
+     * so the population only depends on RANDOM_SEED, not on NUMBER_OF_THREADS. Every agent carries the id of its train
+     * in the person attribute TRAIN_ID_ATTRIBUTE.
+     */
+
+    private static final Logger log = Logger.getLogger(CreatePopulationFromTimetable.class);
+
+    // SETTINGS ...
+    public static final String TRAIN_ID_ATTRIBUTE = "trainId";
+    public static String DOOR_NODE_PREFIX = "tr_";
+    public static String EXIT_NODE_PREFIX = "ex_";
+    public static String LEG_MODE = "walk_1_39";
+    public static double ALIGHTING_DURATION = 60.; // in s
+    public static double BOARDING_WINDOW = 600.; // in s
+    public static double BOARDING_BUFFER = 60.; // in s
+    public static long RANDOM_SEED = 4711;
+    // number of threads expanding cars into persons
+    public static int NUMBER_OF_THREADS = 1;
+
+    public static void main(String[] args) {
+        CreatePopulationFromTimetable.Input input = new CreatePopulationFromTimetable.Input();
+        JCommander.newBuilder().addObject(input).build().parse(args);
+        log.info("Input timetable file path: " + input.timetable);
+        log.info("Input network file path: " + input.network);
+        log.info("Output populations file path: " + input.popOutput);
+        NUMBER_OF_THREADS = input.threads;
+
+        streamPopulation(Path.of(input.timetable), NetworkUtils.readNetwork(input.network), Path.of(input.popOutput));
+    }
+
+
+    /**
+     * The plans share plan elements (see PlanTemplates); pass the population to PlanTemplates.detach before modifying
+     * or simulating it.
+     */
+    public static Population createPopulation(Path timetable, Network net) {
+        log.info("Start creating population");
+        Population pop = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        long trains = createPersons(timetable, net, pop.getFactory(), pop::addPerson);
+
+        log.info(String.format("Created %d persons for %d trains", pop.getPersons().size(), trains));
+        return pop;
+    }
+
+    /**
+     * Writes the persons to the plans file while they are generated instead of building the population in memory first.
+     */
+    public static void streamPopulation(Path timetable, Network net, Path path) {
+        log.info("Start streaming population");
+        try (StreamingPopulationSink sink = new StreamingPopulationSink(path)) {
+            long trains = createPersons(timetable, net, PopulationUtils.getFactory(), sink);
+            sink.finish();
+            log.info(String.format("Created persons for %d trains", trains));
+        }
+    }
+
+    private static long createPersons(Path timetable, Network net, PopulationFactory fac, Consumer<Person> persons) {
+        StationLayout layout = new StationLayout(net);
+        PlanTemplates templates = new PlanTemplates(fac);
+        Map<String, int[]> personCounters = new HashMap<>();
+
+        try (ParallelPopulationGenerator<CarGroup> generator = new ParallelPopulationGenerator<>(RANDOM_SEED, NUMBER_OF_THREADS,
+                (group, random, out) -> createPersons(fac, templates, layout, group, random, out), persons)) {
+            long trains = TimetableCsvReader.read(timetable, train -> {
+                for (TimetableCsvReader.Car car : train) {
+                    generator.add(createGroup(layout, personCounters, car, train.size(), timetable));
+                }
+            });
+            generator.flush();
+            return trains;
+        }
+    }
+
+    /**
+     * Resolves the doors of the car and reserves its person numbers; runs on the reading thread in timetable order.
+     */
+    private static CarGroup createGroup(StationLayout layout, Map<String, int[]> personCounters, TimetableCsvReader.Car car,
+                                        int numberOfCars, Path timetable) {
+        List<Coord> trackDoors = layout.doors.get(car.track);
+        if (trackDoors == null) {
+            throw new IllegalArgumentException(String.format("%s, line %d: the network has no door nodes %s%s_* for track %s",
+                    timetable, car.lineNumber, DOOR_NODE_PREFIX, car.track, car.track));
+        }
+        CarGroup group = new CarGroup(car, layout.getCarDoors(trackDoors, car.car, numberOfCars));
+        group.firstZA = reservePersonNumbers(personCounters, PersonType.ZA, car.trainId, car.alighting);
+        group.firstUM = reservePersonNumbers(personCounters, PersonType.UM, car.trainId, car.transferring);
+        group.firstQE = reservePersonNumbers(personCounters, PersonType.QE, car.trainId, car.boarding);
+        return group;
+    }
+
+    private static int reservePersonNumbers(Map<String, int[]> personCounters, PersonType type, String trainId, int persons) {
+        int[] counter = personCounters.computeIfAbsent(type.getIdPrefix() + "_" + trainId, k -> new int[1]);
+        int first = counter[0];
+        counter[0] += persons;
+        return first;
+    }
+
+    /**
+     * Expands a car into persons; runs in parallel and therefore only reads the group, the layout and the random stream.
+     */
+    private static void createPersons(PopulationFactory fac, PlanTemplates templates, StationLayout layout, CarGroup group,
+                                      SplittableRandom random, Consumer<Person> persons) {
+        TimetableCsvReader.Car car = group.car;
+
+        for (int i = 0; i < car.alighting; i++) {
+            Coord door = pick(group.doors, random);
+            Coord exit = pick(layout.exits, random);
+            double departure = Math.floor(car.arrival + ALIGHTING_DURATION * random.nextDouble());
+            persons.accept(createPerson(fac, templates, PersonType.ZA, car.trainId, group.firstZA + i, door, exit, departure));
+        }
+
+        for (int i = 0; i < car.transferring; i++) {
+            Coord door = pick(group.doors, random);
+            Coord connectingDoor = pick(layout.getDoorsOfOtherTracks(car.track), random);
+            double departure = Math.floor(car.arrival + ALIGHTING_DURATION * random.nextDouble());
+            persons.accept(createPerson(fac, templates, PersonType.UM, car.trainId, group.firstUM + i, door, connectingDoor, departure));
+        }
+
+        for (int i = 0; i < car.boarding; i++) {
+            Coord entrance = pick(layout.exits, random);
+            Coord door = pick(group.doors, random);
+            double departure = Math.floor(car.departure - BOARDING_WINDOW + (BOARDING_WINDOW - BOARDING_BUFFER) * random.nextDouble());
+            persons.accept(createPerson(fac, templates, PersonType.QE, car.trainId, group.firstQE + i, entrance, door, departure));
+        }
+    }
+
+    private static Coord pick(List<Coord> coords, SplittableRandom random) {
+        return coords.get(random.nextInt(coords.size()));
+    }
+
+    private static Person createPerson(PopulationFactory fac, PlanTemplates templates, PersonType type, String trainId, int number,
+                                       Coord origin, Coord destination, double departure) {
+        Person person = fac.createPerson(Id.createPersonId(type.getIdPrefix() + "_" + trainId + "_" + number));
+        person.getAttributes().putAttribute("subpopulation", type.toString());
+        person.getAttributes().putAttribute(TRAIN_ID_ATTRIBUTE, trainId);
+
+        // create a plan with chain activity -> leg -> activity
+        Plan plan = templates.createPlan(type.getOriginActivity(), origin, departure, LEG_MODE,
+                type.getDestinationActivity(), destination, Double.NaN);
+        person.addPlan(plan);
+        return person;
+    }
+
+
+    /**
+     * Door and exit coordinates of the station network, collected once before the timetable is read.
+     */
+    private static final class StationLayout {
+        // door coordinates per track, ordered by door number
+        private final Map<String, List<Coord>> doors = new HashMap<>();
+        private final Map<String, List<Coord>> doorsOfOtherTracks = new HashMap<>();
+        private final List<Coord> exits = new ArrayList<>();
+
+        StationLayout(Network net) {
+            Map<String, TreeMap<Integer, Coord>> doorsByNumber = new TreeMap<>();
+            for (Node node : net.getNodes().values()) {
+                String id = node.getId().toString();
+                if (id.startsWith(DOOR_NODE_PREFIX)) {
+                    int separator = id.lastIndexOf('_');
+                    if (separator > DOOR_NODE_PREFIX.length()) {
+                        String track = id.substring(DOOR_NODE_PREFIX.length(), separator);
+                        try {
+                            int door = Integer.parseInt(id.substring(separator + 1));
+                            doorsByNumber.computeIfAbsent(track, k -> new TreeMap<>()).put(door, node.getCoord());
+                        } catch (NumberFormatException e) {
+                            log.warn("Door node with unexpected id is ignored: " + id);
+                        }
+                    }
+                } else if (id.startsWith(EXIT_NODE_PREFIX) && isDeadEnd(node)) {
+                    exits.add(node.getCoord());
+                }
+            }
+            if (exits.isEmpty()) {
+                throw new IllegalArgumentException(String.format("The network does not contain dead-end exit nodes %s*", EXIT_NODE_PREFIX));
+            }
+            doorsByNumber.forEach((track, trackDoors) -> doors.put(track, List.copyOf(trackDoors.values())));
+
+            for (String track : doors.keySet()) {
+                List<Coord> others = new ArrayList<>();
+                doors.forEach((otherTrack, otherDoors) -> {
+                    if (!otherTrack.equals(track)) {
+                        others.addAll(otherDoors);
+                    }
+                });
+                // passengers of a single-track station transfer on the same track
+                doorsOfOtherTracks.put(track, others.isEmpty() ? doors.get(track) : others);
+            }
+            log.info(String.format("Station layout: %d tracks with doors, %d exits", doors.size(), exits.size()));
+        }
+
+        private static boolean isDeadEnd(Node node) {
+            Set<Id<Node>> neighbours = new HashSet<>();
+            for (Link link : node.getOutLinks().values()) {
+                neighbours.add(link.getToNode().getId());
+            }
+            for (Link link : node.getInLinks().values()) {
+                neighbours.add(link.getFromNode().getId());
+            }
+            return neighbours.size() == 1;
+        }
+
+        /**
+         * @return the doors within the section of the platform at which the car stops, or the nearest door if the car
+         * is shorter than the spacing of the doors
+         */
+        List<Coord> getCarDoors(List<Coord> trackDoors, int car, int numberOfCars) {
+            int doorCount = trackDoors.size();
+            List<Coord> carDoors = new ArrayList<>();
+            for (int door = 0; door < doorCount; door++) {
+                // doors are spread evenly over the train, so door 'door' lies in car 1 + door * numberOfCars / doorCount
+                if (door * numberOfCars / doorCount == car - 1) {
+                    carDoors.add(trackDoors.get(door));
+                }
+            }
+            if (carDoors.isEmpty()) {
+                carDoors.add(trackDoors.get((int) ((car - 0.5) * doorCount / numberOfCars)));
+            }
+            return carDoors;
+        }
+
+        List<Coord> getDoorsOfOtherTracks(String track) {
+            return doorsOfOtherTracks.get(track);
+        }
+    }
+
+
+    private static final class CarGroup {
+        private final TimetableCsvReader.Car car;
+        private final List<Coord> doors;
+        private int firstZA;
+        private int firstUM;
+        private int firstQE;
+
+        CarGroup(TimetableCsvReader.Car car, List<Coord> doors) {
+            this.car = car;
+            this.doors = doors;
+        }
+    }
+
+
+    private static class Input {
+        @Parameter(names = "-timetable")
+        private String timetable;
+
+        @Parameter(names = "-network")
+        private String network;
+
+        @Parameter(names = "-popOutput")
+        private String popOutput;
+
+        @Parameter(names = "-threads")
+        private int threads = 1;
+    }
+}
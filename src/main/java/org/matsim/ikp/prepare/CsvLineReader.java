@@ -0,0 +1,364 @@
+package org.matsim.ikp.prepare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/** @author: davidwedekind */
+
+final class CsvLineReader implements Closeable {
+
+    /**
+     * Streaming reader for the semicolon separated input files of the population generators (see DemandCsvReader
+     * and TimetableCsvReader). The first line names the columns; the requested columns are resolved once and then
+     * addressed by their position in the request. Further columns are ignored. Files ending with .gz are decompressed
+     * on the fly.
+     *
+     * The file is read through a reusable byte buffer and parsed in place: numbers are parsed from the bytes directly and
+     * the few distinct ids are pooled, so that reading a line does not allocate.
+     */
+
+    private static final byte SEPARATOR = ';';
+    private static final int BUFFER_SIZE = 1 << 20;
+    // longer decimal numbers are handed to Double.parseDouble, which rounds them correctly
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private final Path file;
+    private final ReadableByteChannel channel;
+    private final StringPool strings = new StringPool();
+
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    private int limit;
+    private int next;
+    private boolean eof;
+    private long lineNumber;
+    private int lineStart;
+    private int lineEnd;
+
+    // header position of every requested column
+    private final int[] columnIndex;
+    private final int columns;
+    private final int[] fieldStart;
+    private final int[] fieldEnd;
+
+    CsvLineReader(Path file, String... requestedColumns) throws IOException {
+        this.file = file;
+        this.channel = file.getFileName().toString().endsWith(".gz") ?
+                Channels.newChannel(new GZIPInputStream(Files.newInputStream(file), 1 << 16)) :
+                FileChannel.open(file, StandardOpenOption.READ);
+
+        this.columnIndex = new int[requestedColumns.length];
+        try {
+            if (!readLine()) {
+                throw new IllegalArgumentException(String.format("The file %s is empty", file));
+            }
+            String[] header = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8)
+                    .replace("\uFEFF", "")
+                    .split(String.valueOf((char) SEPARATOR), -1);
+            for (int i = 0; i < header.length; i++) {
+                header[i] = header[i].trim();
+            }
+            for (int c = 0; c < requestedColumns.length; c++) {
+                columnIndex[c] = resolve(header, requestedColumns[c]);
+            }
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        // only the columns up to the last one requested are split
+        this.columns = Arrays.stream(columnIndex).max().orElse(-1) + 1;
+        this.fieldStart = new int[columns];
+        this.fieldEnd = new int[columns];
+    }
+
+    /**
+     * Advances to the next non-empty line.
+     *
+     * @return false if the file has been read completely
+     */
+    boolean next() throws IOException {
+        do {
+            if (!readLine()) {
+                return false;
+            }
+        } while (lineEnd == lineStart);
+
+        splitFields();
+        return true;
+    }
+
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return the value of the requested column; equal values are the same String instance
+     */
+    String pooled(int column) {
+        int col = columnIndex[column];
+        if (fieldStart[col] == fieldEnd[col]) {
+            throw error("empty value in column " + (col + 1));
+        }
+        return strings.get(bytes, fieldStart[col], fieldEnd[col]);
+    }
+
+    <E extends Enum<E>> E parseEnum(int column, Class<E> type) {
+        String value = pooled(column);
+        try {
+            return Enum.valueOf(type, value);
+        } catch (IllegalArgumentException e) {
+            throw error(String.format("unknown %s %s", type.getSimpleName(), value));
+        }
+    }
+
+    IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(String.format("%s, line %d: %s", file, lineNumber, message));
+    }
+
+
+    private int resolve(String[] header, String column) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.format("The file %s does not contain the required column %s", file, column));
+    }
+
+    private boolean readLine() throws IOException {
+        int scanFrom = next;
+        while (true) {
+            for (int i = scanFrom; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    setLine(next, i);
+                    next = i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (next < limit) {
+                    setLine(next, limit);
+                    next = limit;
+                    return true;
+                }
+                return false;
+            }
+            scanFrom = fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        lineNumber++;
+        lineStart = start;
+        lineEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Moves the incomplete line to the front of the buffer and reads more bytes behind it.
+     *
+     * @return the position from which the buffer has not been scanned yet
+     */
+    private int fill() throws IOException {
+        int remaining = limit - next;
+        if (next > 0) {
+            System.arraycopy(bytes, next, bytes, 0, remaining);
+        } else if (remaining == bytes.length) {
+            // a single line longer than the buffer
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        next = 0;
+        limit = remaining;
+        int read = channel.read(ByteBuffer.wrap(bytes, limit, bytes.length - limit));
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return remaining;
+    }
+
+    private void splitFields() {
+        int col = 0;
+        int start = lineStart;
+        for (int i = lineStart; i < lineEnd && col < columns; i++) {
+            if (bytes[i] == SEPARATOR) {
+                fieldStart[col] = start;
+                fieldEnd[col] = i;
+                col++;
+                start = i + 1;
+            }
+        }
+        if (col < columns) {
+            fieldStart[col] = start;
+            fieldEnd[col] = lineEnd;
+            col++;
+        }
+        if (col < columns) {
+            throw error(String.format("expected at least %d columns, found %d", columns, col));
+        }
+        // ignore surrounding blanks
+        for (int c = 0; c < columns; c++) {
+            while (fieldStart[c] < fieldEnd[c] && bytes[fieldStart[c]] == ' ') {
+                fieldStart[c]++;
+            }
+            while (fieldEnd[c] > fieldStart[c] && bytes[fieldEnd[c] - 1] == ' ') {
+                fieldEnd[c]--;
+            }
+        }
+    }
+
+    int parseInt(int column) {
+        int col = columnIndex[column];
+        int from = fieldStart[col];
+        int to = fieldEnd[col];
+        if (from == to) {
+            throw error("empty value in column " + (col + 1));
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw error("not a non-negative integer: " + text(col));
+            }
+            value = value * 10 + digit;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw error("not a non-negative integer: " + text(col));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses hh:mm:ss, hh:mm or seconds.
+     */
+    double parseTime(int column) {
+        int col = columnIndex[column];
+        int from = fieldStart[col];
+        int to = fieldEnd[col];
+        double seconds = 0;
+        int partStart = from;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == ':') {
+                seconds = (seconds + parseDouble(col, partStart, i)) * 60;
+                partStart = i + 1;
+            }
+        }
+        return seconds + parseDouble(col, partStart, to);
+    }
+
+    private double parseDouble(int col, int from, int to) {
+        if (from == to) {
+            throw error("not a number: " + text(col));
+        }
+        int i = from;
+        boolean negative = bytes[i] == '-';
+        if (negative || bytes[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == to && digits > 0 && digits <= MAX_FAST_DIGITS) {
+            // both operands are exact, so the division is correctly rounded
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw error("not a number: " + text(col));
+        }
+    }
+
+    private String text(int col) {
+        return new String(bytes, fieldStart[col], fieldEnd[col] - fieldStart[col], StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Open addressing table from byte sequences to Strings, so that repeated values are decoded only once.
+     */
+    private static final class StringPool {
+        private byte[][] keys = new byte[1024][];
+        private String[] values = new String[1024];
+        private int size;
+
+        String get(byte[] bytes, int from, int to) {
+            int mask = keys.length - 1;
+            int slot = hash(bytes, from, to) & mask;
+            while (keys[slot] != null) {
+                if (Arrays.equals(keys[slot], 0, keys[slot].length, bytes, from, to)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            String value = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+            keys[slot] = Arrays.copyOfRange(bytes, from, to);
+            values[slot] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(byte[] bytes, int from, int to) {
+            int h = 1;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + bytes[i];
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.matsim.ikp.prepare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/** @author: davidwedekind */
+
+final class DemandCsvReader implements Closeable {
+
+    /**
+     * Streaming reader for demand files, i.e. semicolon separated rows of passengers per train, OD pair and time slice:
+     *
+     * trainId;personType;origin;destination;from;to;passengers
+     * 4711;ZA;1001;2003;07:01:00;07:03:00;20
+     *
+     * origin and destination are node ids of the station network, from and to bound the time slice in which the
+     * passengers depart (either hh:mm:ss or seconds). Column order is taken from the header; further columns are ignored.
+     *
+     * Lines are parsed in place by a CsvLineReader, so that a row costs one Record allocation and nothing else.
+     */
+
+    static final String TRAIN_ID_COL = "trainId";
+    static final String PERSON_TYPE_COL = "personType";
+    static final String ORIGIN_COL = "origin";
+    static final String DESTINATION_COL = "destination";
+    static final String FROM_COL = "from";
+    static final String TO_COL = "to";
+    static final String PASSENGERS_COL = "passengers";
+
+    // positions of the columns in the request to the CsvLineReader
+    private static final int TRAIN_ID = 0;
+    private static final int PERSON_TYPE = 1;
+    private static final int ORIGIN = 2;
+    private static final int DESTINATION = 3;
+    private static final int FROM = 4;
+    private static final int TO = 5;
+    private static final int PASSENGERS = 6;
+
+    private final CsvLineReader lines;
+
+    DemandCsvReader(Path file) throws IOException {
+        this.lines = new CsvLineReader(file, TRAIN_ID_COL, PERSON_TYPE_COL, ORIGIN_COL, DESTINATION_COL, FROM_COL, TO_COL, PASSENGERS_COL);
+    }
+
+    /**
+     * Reads all rows of the file and hands them to the handler one at a time.
+     */
+    static long read(Path file, Consumer<Record> handler) {
+        long rows = 0;
+        try (DemandCsvReader reader = new DemandCsvReader(file)) {
+            for (Record record = reader.next(); record != null; record = reader.next()) {
+                handler.accept(record);
+                rows++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rows;
+    }
+
+    /**
+     * @return the next row of the file or null if the file has been read completely
+     */
+    Record next() throws IOException {
+        if (!lines.next()) {
+            return null;
+        }
+        return new Record(
+                lines.pooled(TRAIN_ID),
+                lines.parseEnum(PERSON_TYPE, PersonType.class),
+                lines.pooled(ORIGIN),
+                lines.pooled(DESTINATION),
+                lines.parseTime(FROM),
+                lines.parseTime(TO),
+                lines.parseInt(PASSENGERS),
+                lines.getLineNumber());
+    }
+
+    @Override
+    public void close() throws IOException {
+        lines.close();
+    }
+
+
+    static final class Record {
+        final String trainId;
+        final PersonType personType;
+        final String origin;
+        final String destination;
+        final double from;
+        final double to;
+        final int passengers;
+        final long lineNumber;
+
+        Record(String trainId, PersonType personType, String origin, String destination, double from, double to, int passengers, long lineNumber) {
+            this.trainId = trainId;
+            this.personType = personType;
+            this.origin = origin;
+            this.destination = destination;
+            this.from = from;
+            this.to = to;
+            this.passengers = passengers;
+            this.lineNumber = lineNumber;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.matsim.ikp.prepare;
+
+import org.matsim.ikp.prepare.CreateNetworkFromVisumShpFile.LinkType;
+
+/** @author: davidwedekind */
+
+final class LinkCapacityTable {
+
+    /**
+     * Free speed per LinkType and flow capacity per (LinkType, width bucket), precomputed from a VisumNetworkConfigGroup,
+     * so that deriving the link type specific attributes of a link is a table read.
+     *
+     * Widths are rounded to the configured width resolution; links wider than the tabulated range are computed individually.
+     */
+
+    private final VisumNetworkConfigGroup.LinkTypeParams[] params;
+    private final double[] freespeeds;
+    private final double[][] capacities;
+    private final double bucketsPerMetre;
+
+    LinkCapacityTable(VisumNetworkConfigGroup configGroup) {
+        // the config group may not come from a config file, so its consistency check has not necessarily run
+        configGroup.checkWidths();
+        configGroup.checkLinkTypes();
+        LinkType[] types = LinkType.values();
+        this.params = new VisumNetworkConfigGroup.LinkTypeParams[types.length];
+        this.freespeeds = new double[types.length];
+        this.capacities = new double[types.length][];
+        this.bucketsPerMetre = 1. / configGroup.getWidthResolution();
+
+        int buckets = (int) Math.round(configGroup.getMaxTabulatedWidth() * bucketsPerMetre) + 1;
+        for (LinkType type: types) {
+            int i = type.ordinal();
+            params[i] = configGroup.getLinkTypeParams(type.name());
+            // rise free flow speed to make passing effects possible
+            freespeeds[i] = params[i].getSpeed() * configGroup.getFreespeedFactor();
+            capacities[i] = new double[buckets];
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                capacities[i][bucket] = computeCapacity(type, bucket / bucketsPerMetre);
+            }
+        }
+    }
+
+    double getFreespeed(LinkType type) {
+        return freespeeds[type.ordinal()];
+    }
+
+    double getCapacity(LinkType type, double width) {
+        double[] byWidth = capacities[type.ordinal()];
+        long bucket = Math.round(width * bucketsPerMetre);
+        if (bucket >= 0 && bucket < byWidth.length) {
+            return byWidth[(int) bucket];
+        }
+        return computeCapacity(type, width);
+    }
+
+    private double computeCapacity(LinkType type, double width) {
+        if (type == LinkType.Fussweg_Gleiszugang) {
+            // "Gleiszugang" shall have maximum capacity so that combustion effects occur later on
+            return CreateNetworkFromVisumShpFile.maxCapacity;
+        }
+
+        VisumNetworkConfigGroup.LinkTypeParams p = params[type.ordinal()];
+        double cap = CreateNetworkFromVisumShpFile.calculateLinkFlowCapacity(p.getSpeed(), p.getDensity(), width,
+                p.getGauge(), p.getClearanceTime(), CreateNetworkFromVisumShpFile.CAR_SPACE);
+
+        // if in any case capacity calc returns unrealistic small value, minimum capacity is applied
+        return Math.max(cap, CreateNetworkFromVisumShpFile.minCapacity);
+    }
+}
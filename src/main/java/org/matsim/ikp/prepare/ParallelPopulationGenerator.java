@@ -0,0 +1,147 @@
+package org.matsim.ikp.prepare;
+
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/** @author: davidwedekind */
+
+public final class ParallelPopulationGenerator<R> implements AutoCloseable {
+
+    /**
+     * Expands demand records (e.g. rows of a demand file or OD groups of a test scenario) into persons on a fork-join pool.
+     *
+     * Records are added one by one and collected into partitions of PARTITION_SIZE records. Every full partition is
+     * expanded as a task of its own and draws from its own random stream, seeded from the generator seed and the
+     * partition number. Since neither the partitions nor their seeds depend on the number of threads, the generated
+     * persons are the same for any thread count.
+     *
+     * The persons of finished partitions are handed to the consumer in partition order, on the calling thread. At most
+     * PARTITIONS_IN_FLIGHT_PER_THREAD partitions per thread are expanded or waiting to be handed on; adding a record
+     * beyond that waits for the oldest partition. Memory is therefore bounded by the window, not by the number of
+     * records, and a streaming consumer (see StreamingPopulationSink) receives persons while records are still read.
+     */
+
+    // number of records per partition; changing it changes the random streams and thereby the generated persons
+    public static int PARTITION_SIZE = 256;
+    public static int PARTITIONS_IN_FLIGHT_PER_THREAD = 4;
+
+    private final long seed;
+    private final PersonFactory<R> factory;
+    private final Consumer<Person> persons;
+    private final int partitionSize;
+    private final int maxPartitionsInFlight;
+    private final ForkJoinPool pool;
+    private final Deque<Future<List<Person>>> inFlight = new ArrayDeque<>();
+    private List<R> partition;
+    private long nextPartition = 0;
+
+    public ParallelPopulationGenerator(long seed, int numberOfThreads, PersonFactory<R> factory, Consumer<Person> persons) {
+        this.seed = seed;
+        this.factory = factory;
+        this.persons = persons;
+        this.partitionSize = PARTITION_SIZE;
+        this.maxPartitionsInFlight = Math.max(1, numberOfThreads * PARTITIONS_IN_FLIGHT_PER_THREAD);
+        this.pool = numberOfThreads > 1 ? new ForkJoinPool(numberOfThreads) : null;
+        this.partition = new ArrayList<>(partitionSize);
+    }
+
+    /**
+     * Adds a record; may hand the persons of earlier records to the consumer.
+     */
+    public void add(R record) {
+        partition.add(record);
+        if (partition.size() == partitionSize) {
+            submitPartition();
+        }
+    }
+
+    /**
+     * Generates the persons of all records added so far and hands them to the consumer.
+     */
+    public void flush() {
+        if (!partition.isEmpty()) {
+            submitPartition();
+        }
+        while (!inFlight.isEmpty()) {
+            handOnOldestPartition();
+        }
+    }
+
+    /**
+     * Stops the threads; persons of records that have not been flushed are dropped.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            inFlight.forEach(future -> future.cancel(false));
+            inFlight.clear();
+            pool.shutdown();
+        }
+    }
+
+    private void submitPartition() {
+        List<R> records = partition;
+        long number = nextPartition++;
+        partition = new ArrayList<>(partitionSize);
+
+        if (pool == null) {
+            generatePartition(records, number).forEach(persons);
+            return;
+        }
+        if (inFlight.size() == maxPartitionsInFlight) {
+            handOnOldestPartition();
+        }
+        inFlight.addLast(pool.submit(() -> generatePartition(records, number)));
+    }
+
+    private void handOnOldestPartition() {
+        List<Person> generated;
+        try {
+            generated = inFlight.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while generating the population", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Failed to generate the population", e.getCause());
+        }
+        generated.forEach(persons);
+    }
+
+    private List<Person> generatePartition(List<R> records, long partition) {
+        SplittableRandom random = createRandom(partition);
+        List<Person> generated = new ArrayList<>();
+        for (R record : records) {
+            factory.createPersons(record, random, generated::add);
+        }
+        return generated;
+    }
+
+    private SplittableRandom createRandom(long partition) {
+        // spread consecutive partition numbers over the whole seed space
+        long z = seed + partition * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return new SplittableRandom(z ^ (z >>> 33));
+    }
+
+
+    @FunctionalInterface
+    public interface PersonFactory<R> {
+        /**
+         * Creates the persons of one record. Must only use 'random' as source of randomness and must not modify shared state.
+         */
+        void createPersons(R record, SplittableRandom random, Consumer<Person> persons);
+    }
+}
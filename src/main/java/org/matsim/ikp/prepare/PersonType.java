@@ -0,0 +1,39 @@
+package org.matsim.ikp.prepare;
+
+/** @author: davidwedekind */
+
+public enum PersonType {
+
+    /**
+     * Passenger groups of a station simulation:
+     * QE - entering the station to board a train ("Quelle"),
+     * ZA - leaving a train towards a station exit ("Ziel"),
+     * UM - changing trains ("Umsteiger").
+     */
+
+    QE("station_entrance", "train_boarding", "enter"),
+    ZA("train_disembarking", "station_exit", "disembark"),
+    UM("train_disembarking", "train_boarding", "transfer");
+
+    private final String originActivity;
+    private final String destinationActivity;
+    private final String idPrefix;
+
+    PersonType(String originActivity, String destinationActivity, String idPrefix) {
+        this.originActivity = originActivity;
+        this.destinationActivity = destinationActivity;
+        this.idPrefix = idPrefix;
+    }
+
+    public String getOriginActivity() {
+        return originActivity;
+    }
+
+    public String getDestinationActivity() {
+        return destinationActivity;
+    }
+
+    public String getIdPrefix() {
+        return idPrefix;
+    }
+}
@@ -0,0 +1,169 @@
+package org.matsim.ikp.prepare;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.core.population.PopulationUtils;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** @author: davidwedekind */
+
+public final class PlanTemplates {
+
+    /**
+     * Creates activity -> leg -> activity plans whose plan elements are shared between plans where possible.
+     *
+     * Generated station populations consist of large groups of agents with the same origin, destination and mode, so
+     * most of their plan elements can be one instance per group instead of one per agent. Only the Plan itself, its
+     * element list and the elements carrying a time remain per agent:
+     * - 'createPlan' shares the leg and the activities without a time between all plans of these templates. They are
+     *   cached by mode and by (type, coordinate), so the caches are bounded by the number of station nodes.
+     * - A 'Template' also shares the activities with a time, between the plans created from it. Callers keep one
+     *   template per group of agents with equal times (e.g. an OD group), so these elements live as long as the group.
+     *
+     * Shared elements are not copy-on-write, and a change to one of them changes the plans of all agents sharing it.
+     * Plans written to a file (e.g. by a StreamingPopulationSink) are not affected, since they are read back as separate
+     * instances. A population kept in memory has to be passed to 'detach' before any of its plans are modified, and
+     * in particular before it is simulated: PersonPrepareForSim sets the link ids of the activities (XY2Links), and
+     * strategies or user code may change times, types or coordinates in place.
+     *
+     * Instances are thread-safe, so they can be used from a ParallelPopulationGenerator.
+     */
+
+    private final PopulationFactory fac;
+    private final ConcurrentMap<ActivityKey, Activity> activities = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Leg> legs = new ConcurrentHashMap<>();
+
+    public PlanTemplates(PopulationFactory fac) {
+        this.fac = fac;
+    }
+
+    /**
+     * @param originEndTime end time of the origin activity; NaN for none
+     * @param destinationStartTime start time of the destination activity; NaN for none
+     */
+    public Plan createPlan(String originType, Coord origin, double originEndTime, String mode,
+                           String destinationType, Coord destination, double destinationStartTime) {
+        return createPlan(getActivity(originType, origin, Double.NaN, originEndTime), getLeg(mode),
+                getActivity(destinationType, destination, destinationStartTime, Double.NaN));
+    }
+
+    /**
+     * @param originEndTime end time of the origin activity; NaN for none
+     * @param destinationStartTime start time of the destination activity; NaN for none
+     * @return a template whose plans all share the same three elements
+     */
+    public Template createTemplate(String originType, Coord origin, double originEndTime, String mode,
+                                   String destinationType, Coord destination, double destinationStartTime) {
+        return new Template(getActivity(originType, origin, Double.NaN, originEndTime), getLeg(mode),
+                getActivity(destinationType, destination, destinationStartTime, Double.NaN));
+    }
+
+    /**
+     * @return number of distinct activities and legs shared by all plans created so far; elements of templates
+     * that carry a time are not counted
+     */
+    public int getNumberOfSharedElements() {
+        return activities.size() + legs.size();
+    }
+
+    /**
+     * Detaches all plans of the population, see detach(Plan).
+     */
+    public static void detach(Population population) {
+        for (Person person: population.getPersons().values()) {
+            for (Plan plan: person.getPlans()) {
+                detach(plan);
+            }
+        }
+    }
+
+    /**
+     * Replaces the elements of the plan by private copies, so that they can be modified without affecting other plans.
+     */
+    public static void detach(Plan plan) {
+        List<PlanElement> elements = plan.getPlanElements();
+        for (int i = 0; i < elements.size(); i++) {
+            PlanElement element = elements.get(i);
+            if (element instanceof Activity) {
+                elements.set(i, PopulationUtils.createActivity((Activity) element));
+            } else if (element instanceof Leg) {
+                elements.set(i, PopulationUtils.createLeg((Leg) element));
+            }
+        }
+    }
+
+    private Plan createPlan(Activity origin, Leg leg, Activity destination) {
+        Plan plan = fac.createPlan();
+        plan.addActivity(origin);
+        plan.addLeg(leg);
+        plan.addActivity(destination);
+        return plan;
+    }
+
+    private Leg getLeg(String mode) {
+        return legs.computeIfAbsent(mode, fac::createLeg);
+    }
+
+    /**
+     * Activities without a time are shared; an activity with a time is a new instance, since times usually differ
+     * between agents and caching them would keep one activity per agent alive.
+     */
+    private Activity getActivity(String type, Coord coord, double startTime, double endTime) {
+        if (Double.isNaN(startTime) && Double.isNaN(endTime)) {
+            return activities.computeIfAbsent(new ActivityKey(type, coord), key -> fac.createActivityFromCoord(type, coord));
+        }
+        Activity activity = fac.createActivityFromCoord(type, coord);
+        if (!Double.isNaN(startTime)) {
+            activity.setStartTime(startTime);
+        }
+        if (!Double.isNaN(endTime)) {
+            activity.setEndTime(endTime);
+        }
+        return activity;
+    }
+
+
+    public final class Template {
+        private final Activity origin;
+        private final Leg leg;
+        private final Activity destination;
+
+        private Template(Activity origin, Leg leg, Activity destination) {
+            this.origin = origin;
+            this.leg = leg;
+            this.destination = destination;
+        }
+
+        public Plan createPlan() {
+            return PlanTemplates.this.createPlan(origin, leg, destination);
+        }
+    }
+
+
+    private static final class ActivityKey {
+        private final String type;
+        private final Coord coord;
+
+        ActivityKey(String type, Coord coord) {
+            this.type = type;
+            this.coord = coord;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ActivityKey)) return false;
+            ActivityKey that = (ActivityKey) o;
+            return type.equals(that.type) && coord.equals(that.coord);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, coord);
+        }
+    }
+}
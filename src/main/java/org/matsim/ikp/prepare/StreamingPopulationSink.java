@@ -0,0 +1,155 @@
+package org.matsim.ikp.prepare;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.StreamingPopulationWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/** @author: davidwedekind */
+
+public final class StreamingPopulationSink implements Consumer<Person>, AutoCloseable {
+
+    /**
+     * Writes persons to a plans file while they are generated, so that the full population is never held in memory.
+     *
+     * Persons are handed over through a bounded queue to a background thread, which formats them and - for file names
+     * ending with .gz - compresses them. If the writer falls behind, the generating thread blocks, so memory is bounded
+     * by the queue capacity. Persons are written in the order they are accepted.
+     *
+     * Call 'finish' once all persons are accepted. Closing the sink without finishing it, e.g. because the generation
+     * failed, aborts the stream and deletes the partial file, so that no truncated plans file is left behind.
+     */
+
+    private static final Logger log = Logger.getLogger(StreamingPopulationSink.class);
+
+    public static int QUEUE_CAPACITY = 10_000;
+
+    // marks the end of the stream; never written
+    private static final Person END_OF_STREAM = PopulationUtils.getFactory().createPerson(
+            Id.createPersonId("__end_of_stream__"));
+
+    private final Path path;
+    private final BlockingQueue<Person> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private volatile Throwable failure;
+    private long written = 0;
+    private boolean closed = false;
+
+    public StreamingPopulationSink(Path path) {
+        this.path = path;
+        log.info("Streaming population to " + path);
+        StreamingPopulationWriter writer = new StreamingPopulationWriter();
+        writer.startStreaming(path.toString());
+
+        this.writerThread = new Thread(() -> write(writer), "population-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void accept(Person person) {
+        checkFailure();
+        try {
+            // do not block forever if the writer thread died while the queue was full
+            while (!queue.offer(person, 1, TimeUnit.SECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while streaming the population to " + path, e);
+        }
+        written++;
+    }
+
+    /**
+     * Waits until all accepted persons are written and closes the file.
+     */
+    public void finish() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (!queue.offer(END_OF_STREAM, 1, TimeUnit.SECONDS)) {
+                checkFailure();
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while streaming the population to " + path, e);
+        }
+        checkFailure();
+        closed = true;
+
+        log.info(String.format("Wrote %d persons to %s", written, path));
+        log.info("");
+        log.info("Finished \uD83C\uDF89");
+    }
+
+    /**
+     * Aborts the stream and deletes the partial file unless the sink has been finished.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        log.warn("Aborting the population stream to " + path);
+        queue.clear();
+        writerThread.interrupt();
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete the partial population file " + path, e);
+        }
+    }
+
+    private void write(StreamingPopulationWriter writer) {
+        try {
+            for (Person person = queue.take(); person != END_OF_STREAM; person = queue.take()) {
+                writer.run(person);
+            }
+            writer.closeStreaming();
+        } catch (InterruptedException e) {
+            // aborted; only release the file, it is deleted anyway
+            closeQuietly(writer);
+        } catch (Throwable t) {
+            failure = t;
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(StreamingPopulationWriter writer) {
+        try {
+            writer.closeStreaming();
+        } catch (Throwable ignored) {
+            // the stream already failed or was aborted
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Failed to stream the population to " + path, failure);
+        }
+    }
+}
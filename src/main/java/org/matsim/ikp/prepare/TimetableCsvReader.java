@@ -0,0 +1,159 @@
+package org.matsim.ikp.prepare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** @author: davidwedekind */
+
+final class TimetableCsvReader implements Closeable {
+
+    /**
+     * Streaming reader for timetable files, i.e. semicolon separated rows with the passenger load of every car of a train:
+     *
+     * trainId;track;arrival;departure;car;alighting;boarding;transferring
+     * 4711;1;07:01:00;07:03:00;1;20;12;3
+     * 4711;1;07:01:00;07:03:00;2;35;8;0
+     *
+     * track is the track number used in the names of the door nodes (tr_[track]_[door]) of the station network,
+     * car counts from the front of the train (1, 2, ..., n, each number once) and the rows of one train follow each other.
+     * Trains are handed on one at a time, so only a single train is held in memory.
+     */
+
+    static final String TRAIN_ID_COL = "trainId";
+    static final String TRACK_COL = "track";
+    static final String ARRIVAL_COL = "arrival";
+    static final String DEPARTURE_COL = "departure";
+    static final String CAR_COL = "car";
+    static final String ALIGHTING_COL = "alighting";
+    static final String BOARDING_COL = "boarding";
+    static final String TRANSFERRING_COL = "transferring";
+
+    // positions of the columns in the request to the CsvLineReader
+    private static final int TRAIN_ID = 0;
+    private static final int TRACK = 1;
+    private static final int ARRIVAL = 2;
+    private static final int DEPARTURE = 3;
+    private static final int CAR = 4;
+    private static final int ALIGHTING = 5;
+    private static final int BOARDING = 6;
+    private static final int TRANSFERRING = 7;
+
+    private final CsvLineReader lines;
+    private Car pending;
+
+    TimetableCsvReader(Path file) throws IOException {
+        this.lines = new CsvLineReader(file, TRAIN_ID_COL, TRACK_COL, ARRIVAL_COL, DEPARTURE_COL, CAR_COL,
+                ALIGHTING_COL, BOARDING_COL, TRANSFERRING_COL);
+    }
+
+    /**
+     * Reads all trains of the file and hands them to the handler one at a time.
+     *
+     * @return the number of trains read
+     */
+    static long read(Path file, Consumer<List<Car>> handler) {
+        long trains = 0;
+        try (TimetableCsvReader reader = new TimetableCsvReader(file)) {
+            for (List<Car> train = reader.nextTrain(); train != null; train = reader.nextTrain()) {
+                handler.accept(train);
+                trains++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return trains;
+    }
+
+    /**
+     * @return the cars of the next train in the order of the file, or null if the file has been read completely
+     */
+    List<Car> nextTrain() throws IOException {
+        Car first = pending != null ? pending : nextCar();
+        pending = null;
+        if (first == null) {
+            return null;
+        }
+        List<Car> train = new ArrayList<>();
+        train.add(first);
+        for (Car car = nextCar(); car != null; car = nextCar()) {
+            if (!car.trainId.equals(first.trainId)) {
+                pending = car;
+                break;
+            }
+            if (!car.track.equals(first.track) || car.arrival != first.arrival || car.departure != first.departure) {
+                throw lines.error(String.format("track, arrival and departure differ between the cars of train %s", first.trainId));
+            }
+            train.add(car);
+        }
+        // the car numbers of a train are exactly 1..n, each of them once
+        BitSet carNumbers = new BitSet(train.size() + 1);
+        for (Car car : train) {
+            if (car.car < 1 || car.car > train.size()) {
+                throw new IllegalArgumentException(String.format("%s, line %d: train %s has %d cars, so car %d does not exist",
+                        lines.getFile(), car.lineNumber, car.trainId, train.size(), car.car));
+            }
+            if (carNumbers.get(car.car)) {
+                throw new IllegalArgumentException(String.format("%s, line %d: car %d of train %s occurs more than once",
+                        lines.getFile(), car.lineNumber, car.car, car.trainId));
+            }
+            carNumbers.set(car.car);
+        }
+        return train;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lines.close();
+    }
+
+    private Car nextCar() throws IOException {
+        if (!lines.next()) {
+            return null;
+        }
+        Car car = new Car(
+                lines.pooled(TRAIN_ID),
+                lines.pooled(TRACK),
+                lines.parseTime(ARRIVAL),
+                lines.parseTime(DEPARTURE),
+                lines.parseInt(CAR),
+                lines.parseInt(ALIGHTING),
+                lines.parseInt(BOARDING),
+                lines.parseInt(TRANSFERRING),
+                lines.getLineNumber());
+        if (car.departure < car.arrival) {
+            throw lines.error(String.format("train %s departs before it arrives", car.trainId));
+        }
+        return car;
+    }
+
+
+    static final class Car {
+        final String trainId;
+        final String track;
+        final double arrival;
+        final double departure;
+        final int car;
+        final int alighting;
+        final int boarding;
+        final int transferring;
+        final long lineNumber;
+
+        Car(String trainId, String track, double arrival, double departure, int car, int alighting, int boarding, int transferring, long lineNumber) {
+            this.trainId = trainId;
+            this.track = track;
+            this.arrival = arrival;
+            this.departure = departure;
+            this.car = car;
+            this.alighting = alighting;
+            this.boarding = boarding;
+            this.transferring = transferring;
+            this.lineNumber = lineNumber;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.matsim.ikp.prepare;
+
+import org.apache.log4j.Logger;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/** @author: davidwedekind */
+
+final class VisumFeatureSchema {
+
+    /**
+     * Resolves attribute names of a shapefile's feature type to attribute indices once per file,
+     * so that the importer can read the attributes of every feature by index instead of by name.
+     *
+     * Attributes that are absent from the schema are reported once when they are resolved;
+     * reading an absent attribute returns the given default value for every feature.
+     * Required values (readRequiredDouble) fail with the feature and the attribute if they are null.
+     */
+
+    private static final Logger log = Logger.getLogger(VisumFeatureSchema.class);
+
+    static final int ABSENT = -1;
+
+    private final SimpleFeatureType featureType;
+
+    VisumFeatureSchema(SimpleFeatureType featureType) {
+        this.featureType = featureType;
+    }
+
+    int resolveRequired(String attributeName) {
+        int index = featureType.indexOf(attributeName);
+        if (index == ABSENT) {
+            throw new IllegalArgumentException(String.format("The parsed shapefile %s does not contain the required attribute %s",
+                    featureType.getTypeName(), attributeName));
+        }
+        return index;
+    }
+
+    int resolveOptional(String attributeName) {
+        int index = featureType.indexOf(attributeName);
+        if (index == ABSENT) {
+            log.warn(String.format("The parsed shapefile %s does not contain the attribute %s; the default value is used for all features",
+                    featureType.getTypeName(), attributeName));
+        }
+        return index;
+    }
+
+    static boolean isNull(SimpleFeature feature, int index) {
+        return index == ABSENT || feature.getAttribute(index) == null;
+    }
+
+    static String readString(SimpleFeature feature, int index, String valueIfNull) {
+        if (index == ABSENT) {
+            return valueIfNull;
+        }
+        Object value = feature.getAttribute(index);
+        return value == null ? valueIfNull : value.toString();
+    }
+
+    static double readRequiredDouble(SimpleFeature feature, int index, String attributeName) {
+        if (isNull(feature, index)) {
+            throw new IllegalArgumentException(String.format("Feature %s of the parsed shapefile %s has no value for the required attribute %s",
+                    feature.getID(), feature.getFeatureType().getTypeName(), attributeName));
+        }
+        return readDouble(feature, index, Double.NaN);
+    }
+
+    static double readDouble(SimpleFeature feature, int index, double valueIfNull) {
+        if (index == ABSENT) {
+            return valueIfNull;
+        }
+        Object value = feature.getAttribute(index);
+        if (value == null) {
+            return valueIfNull;
+        }
+        // dbf numbers come as Double or as integral types; both convert without going through a String.
+        // Anything else (e.g. Float, text columns) is parsed from its String representation as before.
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            return ((Number) value).longValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+}
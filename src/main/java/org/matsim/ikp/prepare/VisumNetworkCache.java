@@ -0,0 +1,335 @@
+package org.matsim.ikp.prepare;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.ikp.network.NetworkIndex;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/** @author: davidwedekind */
+
+public final class VisumNetworkCache {
+
+    /**
+     * Compact binary representation of networks converted by CreateNetworkFromVisumShpFile.
+     *
+     * Nodes and links are stored column by column in primitive arrays; all Strings (ids, allowed modes and the
+     * 'longName', 'linkType', 'osmID' and 'osmName' attributes) go to a string table and are referenced by index.
+     * 'width' is stored as double. Other attributes are not part of the format.
+     *
+     * Cache files are named after a content hash of the input shapefiles and the importer settings
+     * (see computeKey), so an unchanged station is loaded from the cache instead of being converted again.
+     */
+
+    private static final Logger log = Logger.getLogger(VisumNetworkCache.class);
+
+    private static final int MAGIC = 0x494B504E; // "IKPN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int ABSENT = -1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final List<String> SHP_EXTENSIONS = List.of(".shp", ".dbf", ".prj");
+
+    private VisumNetworkCache() {
+    }
+
+    public static Path getCacheFile(Path cacheDir, String key) {
+        return cacheDir.resolve("visum-network-" + key + ".bin");
+    }
+
+    /**
+     * @return a hex encoded SHA-256 over the content of the shapefiles (.shp, .dbf and .prj) and all importer settings
+     */
+    public static String computeKey(Path nodeShpFile, Path linkShpFile, Set<String> linkModes, VisumNetworkConfigGroup configGroup) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (Path shpFile: List.of(nodeShpFile, linkShpFile)) {
+            String baseName = shpFile.getFileName().toString().replaceFirst("\\.shp$", "");
+            for (String extension: SHP_EXTENSIONS) {
+                Path file = shpFile.resolveSibling(baseName + extension);
+                if (!Files.exists(file)) {
+                    continue;
+                }
+                try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                    while (in.read(buffer) != -1) {
+                        // the digest is updated while reading
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        digest.update(describeSettings(linkModes, configGroup).getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder();
+        for (byte b: digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    static String describeSettings(Set<String> linkModes, VisumNetworkConfigGroup configGroup) {
+        List<String> settings = new ArrayList<>();
+        settings.add("format=" + FORMAT_VERSION);
+        settings.add("crs=" + CreateNetworkFromVisumShpFile.COORD_REF_SYS);
+        settings.add("attributes=" + String.join(",", CreateNetworkFromVisumShpFile.NODE_ID_ATTR, CreateNetworkFromVisumShpFile.NODE_LN_ATTR,
+                CreateNetworkFromVisumShpFile.LINK_ID_ATTR, CreateNetworkFromVisumShpFile.FROM_NODE_ID_ATTR, CreateNetworkFromVisumShpFile.TO_NODE_ID_ATTR,
+                CreateNetworkFromVisumShpFile.LENGTH_ATTR_1ST_CHOICE, CreateNetworkFromVisumShpFile.LENGTH_ATTR_2ND_CHOICE, CreateNetworkFromVisumShpFile.WIDTH_ATTR,
+                CreateNetworkFromVisumShpFile.MAX_SPEED_ATTR, CreateNetworkFromVisumShpFile.LINK_TYPE_ATTR, CreateNetworkFromVisumShpFile.OSM_ID_ATTR,
+                CreateNetworkFromVisumShpFile.OSM_NAME_ATTR));
+        settings.add("carSpace=" + CreateNetworkFromVisumShpFile.CAR_SPACE);
+        settings.add("stdWidth=" + CreateNetworkFromVisumShpFile.stdWidth);
+        settings.add("minCapacity=" + CreateNetworkFromVisumShpFile.minCapacity);
+        settings.add("maxCapacity=" + CreateNetworkFromVisumShpFile.maxCapacity);
+        settings.add("typeNotRelevant=" + new TreeSet<>(CreateNetworkFromVisumShpFile.typeNotRelevant));
+        settings.add("linkModes=" + new TreeSet<>(linkModes));
+        settings.add(configGroup.getName() + "=" + new TreeMap<>(configGroup.getParams()));
+        // the effective parameters of every link type, so that changed built-in defaults (e.g. PLATFORM_CLEARANCE_TIME)
+        // lead to a new key as well as changed parameter sets
+        for (CreateNetworkFromVisumShpFile.LinkType type: CreateNetworkFromVisumShpFile.LinkType.values()) {
+            ConfigGroup params = configGroup.getLinkTypeParams(type.name());
+            settings.add(VisumNetworkConfigGroup.LinkTypeParams.SET_TYPE + "=" + new TreeMap<>(params.getParams()));
+        }
+        return String.join("\n", settings);
+    }
+
+
+    public static void write(Network net, Path file) {
+        StringTable strings = new StringTable();
+        NetworkIndex index = NetworkIndex.of(net);
+        int nodeCount = index.getNumberOfNodes();
+        int linkCount = index.getNumberOfLinks();
+
+        int[] nodeIds = new int[nodeCount];
+        double[] xs = new double[nodeCount];
+        double[] ys = new double[nodeCount];
+        int[] longNames = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            Node node = index.getNode(i);
+            nodeIds[i] = strings.indexOf(node.getId().toString());
+            xs[i] = node.getCoord().getX();
+            ys[i] = node.getCoord().getY();
+            longNames[i] = strings.indexOf(node.getAttributes().getAttribute("longName"));
+        }
+
+        int[] linkIds = new int[linkCount];
+        int[] fromNodes = new int[linkCount];
+        int[] toNodes = new int[linkCount];
+        double[] lengths = new double[linkCount];
+        double[] freespeeds = new double[linkCount];
+        double[] capacities = new double[linkCount];
+        double[] lanes = new double[linkCount];
+        int[] modes = new int[linkCount];
+        double[] widths = new double[linkCount];
+        int[] linkTypes = new int[linkCount];
+        int[] osmIds = new int[linkCount];
+        int[] osmNames = new int[linkCount];
+        for (int i = 0; i < linkCount; i++) {
+            Link link = index.getLink(i);
+            linkIds[i] = strings.indexOf(link.getId().toString());
+            fromNodes[i] = index.getFromNode(i);
+            toNodes[i] = index.getToNode(i);
+            lengths[i] = link.getLength();
+            freespeeds[i] = link.getFreespeed();
+            capacities[i] = link.getCapacity();
+            lanes[i] = link.getNumberOfLanes();
+            modes[i] = strings.indexOf(String.join(",", new TreeSet<>(link.getAllowedModes())));
+            Object width = link.getAttributes().getAttribute("width");
+            widths[i] = width == null ? Double.NaN : ((Number) width).doubleValue();
+            linkTypes[i] = strings.indexOf(link.getAttributes().getAttribute("linkType"));
+            osmIds[i] = strings.indexOf(link.getAttributes().getAttribute("osmID"));
+            osmNames[i] = strings.indexOf(link.getAttributes().getAttribute("osmName"));
+        }
+
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(strings.indexOf(net.getAttributes().getAttribute("coordinateReferenceSystem")));
+                out.writeDouble(net.getCapacityPeriod());
+                // the string table is written first, but only complete after all columns have been collected
+                out.writeInt(strings.values.size());
+                for (String value: strings.values) {
+                    out.writeUTF(value);
+                }
+
+                out.writeInt(nodeCount);
+                writeInts(out, nodeIds);
+                writeDoubles(out, xs);
+                writeDoubles(out, ys);
+                writeInts(out, longNames);
+
+                out.writeInt(linkCount);
+                writeInts(out, linkIds);
+                writeInts(out, fromNodes);
+                writeInts(out, toNodes);
+                writeDoubles(out, lengths);
+                writeDoubles(out, freespeeds);
+                writeDoubles(out, capacities);
+                writeDoubles(out, lanes);
+                writeInts(out, modes);
+                writeDoubles(out, widths);
+                writeInts(out, linkTypes);
+                writeInts(out, osmIds);
+                writeInts(out, osmNames);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    public static Network read(Path file) {
+        Network net = NetworkUtils.createNetwork();
+        read(file, net);
+        return net;
+    }
+
+    public static void read(Path file, Network net) {
+        NetworkFactory fac = net.getFactory();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException(String.format("%s is not a binary network file", file));
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException(String.format("%s has format version %d, expected %d", file, version, FORMAT_VERSION));
+            }
+            int crs = in.readInt();
+            net.setCapacityPeriod(in.readDouble());
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            if (crs != ABSENT) {
+                net.getAttributes().putAttribute("coordinateReferenceSystem", strings[crs]);
+            }
+
+            int nodeCount = in.readInt();
+            int[] nodeIds = readInts(in, nodeCount);
+            double[] xs = readDoubles(in, nodeCount);
+            double[] ys = readDoubles(in, nodeCount);
+            int[] longNames = readInts(in, nodeCount);
+            Node[] nodes = new Node[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                Node node = fac.createNode(Id.createNodeId(strings[nodeIds[i]]), new Coord(xs[i], ys[i]));
+                if (longNames[i] != ABSENT) {
+                    node.getAttributes().putAttribute("longName", strings[longNames[i]]);
+                }
+                net.addNode(node);
+                nodes[i] = node;
+            }
+
+            int linkCount = in.readInt();
+            int[] linkIds = readInts(in, linkCount);
+            int[] fromNodes = readInts(in, linkCount);
+            int[] toNodes = readInts(in, linkCount);
+            double[] lengths = readDoubles(in, linkCount);
+            double[] freespeeds = readDoubles(in, linkCount);
+            double[] capacities = readDoubles(in, linkCount);
+            double[] lanes = readDoubles(in, linkCount);
+            int[] modes = readInts(in, linkCount);
+            double[] widths = readDoubles(in, linkCount);
+            int[] linkTypes = readInts(in, linkCount);
+            int[] osmIds = readInts(in, linkCount);
+            int[] osmNames = readInts(in, linkCount);
+
+            // links of a station share very few distinct mode sets
+            Map<Integer, Set<String>> modeSets = new HashMap<>();
+            for (int i = 0; i < linkCount; i++) {
+                Link link = fac.createLink(Id.createLinkId(strings[linkIds[i]]), nodes[fromNodes[i]], nodes[toNodes[i]]);
+                link.setLength(lengths[i]);
+                link.setFreespeed(freespeeds[i]);
+                link.setCapacity(capacities[i]);
+                link.setNumberOfLanes(lanes[i]);
+                link.setAllowedModes(modeSets.computeIfAbsent(modes[i], idx -> strings[idx].isEmpty() ? Set.of() : Set.of(strings[idx].split(","))));
+                if (!Double.isNaN(widths[i])) {
+                    link.getAttributes().putAttribute("width", widths[i]);
+                }
+                putStringAttribute(link, "linkType", linkTypes[i], strings);
+                putStringAttribute(link, "osmID", osmIds[i], strings);
+                putStringAttribute(link, "osmName", osmNames[i], strings);
+                net.addLink(link);
+            }
+            log.info(String.format("Read %d nodes and %d links from %s", nodeCount, linkCount, file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void putStringAttribute(Link link, String name, int index, String[] strings) {
+        if (index != ABSENT) {
+            link.getAttributes().putAttribute(name, strings[index]);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value: values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double value: values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static double[] readDoubles(DataInputStream in, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+
+    private static final class StringTable {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        int indexOf(Object value) {
+            if (value == null) {
+                return ABSENT;
+            }
+            return indices.computeIfAbsent(value.toString(), v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+    }
+}
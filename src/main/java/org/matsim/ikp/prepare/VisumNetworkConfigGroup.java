@@ -0,0 +1,254 @@
+package org.matsim.ikp.prepare;
+
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** @author: davidwedekind */
+
+public class VisumNetworkConfigGroup extends ReflectiveConfigGroup {
+
+    /**
+     * Walking parameters used by CreateNetworkFromVisumShpFile to derive free speed and flow capacity per link type.
+     *
+     * Link types without a 'linkTypeParams' parameter set use the built-in defaults, i.e. the walking speed, density,
+     * gauge and clearance time the importer has always used. Parameter sets of link types that the importer does not
+     * know (e.g. typos) are rejected, as are several sets for the same link type.
+     *
+     * Capacities are computed from the width of every link, rounded to widthResolution, instead of the standard width
+     * (CreateNetworkFromVisumShpFile.stdWidth, now only used for links without a width) that the importer applied to all
+     * links before. Networks converted with the defaults therefore differ from earlier conversions in their capacities.
+     */
+
+    public static final String GROUP_NAME = "visumNetwork";
+
+    private static final String FREESPEED_FACTOR = "freespeedFactor";
+    private static final String WIDTH_RESOLUTION = "widthResolution";
+    private static final String MAX_TABULATED_WIDTH = "maxTabulatedWidth";
+
+    private double freespeedFactor = 1.3;
+    private double widthResolution = 0.01;
+    private double maxTabulatedWidth = 30.;
+
+    public VisumNetworkConfigGroup() {
+        super(GROUP_NAME);
+    }
+
+    @Override
+    public Map<String, String> getComments() {
+        Map<String, String> map = super.getComments();
+        map.put(FREESPEED_FACTOR, "Factor applied to the walking speed of every link type to make passing effects possible. Default: 1.3");
+        map.put(WIDTH_RESOLUTION, "Link widths are rounded to this resolution (in m) when looking up precomputed capacities. Default: 0.01");
+        map.put(MAX_TABULATED_WIDTH, "Capacities are precomputed for widths up to this value (in m); wider links are computed individually. Default: 30");
+        return map;
+    }
+
+    @StringGetter(FREESPEED_FACTOR)
+    public double getFreespeedFactor() {
+        return freespeedFactor;
+    }
+
+    @StringSetter(FREESPEED_FACTOR)
+    public void setFreespeedFactor(double freespeedFactor) {
+        this.freespeedFactor = freespeedFactor;
+    }
+
+    @StringGetter(WIDTH_RESOLUTION)
+    public double getWidthResolution() {
+        return widthResolution;
+    }
+
+    @StringSetter(WIDTH_RESOLUTION)
+    public void setWidthResolution(double widthResolution) {
+        this.widthResolution = widthResolution;
+    }
+
+    @StringGetter(MAX_TABULATED_WIDTH)
+    public double getMaxTabulatedWidth() {
+        return maxTabulatedWidth;
+    }
+
+    @StringSetter(MAX_TABULATED_WIDTH)
+    public void setMaxTabulatedWidth(double maxTabulatedWidth) {
+        this.maxTabulatedWidth = maxTabulatedWidth;
+    }
+
+    /**
+     * @return the configured parameters of the link type or, if there are none, its built-in defaults
+     */
+    public LinkTypeParams getLinkTypeParams(String linkType) {
+        for (ConfigGroup params : getParameterSets(LinkTypeParams.SET_TYPE)) {
+            if (linkType.equals(((LinkTypeParams) params).getLinkType())) {
+                return (LinkTypeParams) params;
+            }
+        }
+        return LinkTypeParams.createDefault(linkType);
+    }
+
+    public void addLinkTypeParams(LinkTypeParams params) {
+        addParameterSet(params);
+    }
+
+    @Override
+    public ConfigGroup createParameterSet(String type) {
+        if (LinkTypeParams.SET_TYPE.equals(type)) {
+            return new LinkTypeParams();
+        }
+        throw new IllegalArgumentException("Unsupported parameter set type: " + type);
+    }
+
+    @Override
+    protected void checkParameterSet(ConfigGroup module) {
+        if (!LinkTypeParams.SET_TYPE.equals(module.getName())) {
+            throw new IllegalArgumentException("Unsupported parameter set type: " + module.getName());
+        }
+    }
+
+    @Override
+    protected void checkConsistency(Config config) {
+        super.checkConsistency(config);
+        checkWidths();
+        checkLinkTypes();
+    }
+
+    /**
+     * Fails if the capacities cannot be tabulated, e.g. with a width resolution of 0.
+     */
+    void checkWidths() {
+        if (!(widthResolution > 0.)) {
+            throw new IllegalArgumentException(String.format("%s must be positive, but is %s", WIDTH_RESOLUTION, widthResolution));
+        }
+        if (!(maxTabulatedWidth >= 0.)) {
+            throw new IllegalArgumentException(String.format("%s must not be negative, but is %s", MAX_TABULATED_WIDTH, maxTabulatedWidth));
+        }
+    }
+
+    /**
+     * Fails if a linkTypeParams set names a link type that is not an element of the enum LinkType, or if a link type
+     * is configured more than once. getLinkTypeParams would silently use the defaults in the first case.
+     */
+    void checkLinkTypes() {
+        Set<String> configured = new HashSet<>();
+        for (ConfigGroup params : getParameterSets(LinkTypeParams.SET_TYPE)) {
+            String linkType = ((LinkTypeParams) params).getLinkType();
+            boolean known = Arrays.stream(CreateNetworkFromVisumShpFile.LinkType.values()).anyMatch(type -> type.name().equals(linkType));
+            if (!known) {
+                throw new IllegalArgumentException(String.format("%s: unknown %s '%s'; known link types are %s",
+                        LinkTypeParams.SET_TYPE, LinkTypeParams.LINK_TYPE, linkType, Arrays.toString(CreateNetworkFromVisumShpFile.LinkType.values())));
+            }
+            if (!configured.add(linkType)) {
+                throw new IllegalArgumentException(String.format("%s: %s '%s' is configured more than once",
+                        LinkTypeParams.SET_TYPE, LinkTypeParams.LINK_TYPE, linkType));
+            }
+        }
+    }
+
+
+    public static class LinkTypeParams extends ReflectiveConfigGroup {
+
+        public static final String SET_TYPE = "linkTypeParams";
+
+        private static final String LINK_TYPE = "linkType";
+        private static final String SPEED = "speed";
+        private static final String DENSITY = "density";
+        private static final String GAUGE = "gauge";
+        private static final String CLEARANCE_TIME = "clearanceTime";
+
+        private String linkType;
+        private double speed = 1.3;
+        private double density = 1.0;
+        private double gauge = 0.8;
+        private double clearanceTime = CreateNetworkFromVisumShpFile.PLATFORM_CLEARANCE_TIME;
+
+        public LinkTypeParams() {
+            super(SET_TYPE);
+        }
+
+        static LinkTypeParams createDefault(String linkType) {
+            LinkTypeParams params = new LinkTypeParams();
+            params.setLinkType(linkType);
+            // RIL 813 values for stairs; all other link types walk at the default speed and density
+            switch (linkType) {
+                case "Stufen_aufwaerts":
+                    params.setSpeed(0.5);
+                    params.setDensity(1.2);
+                    break;
+
+                case "Stufen_abwaerts":
+                    params.setSpeed(0.6);
+                    params.setDensity(1.2);
+                    break;
+
+                default:
+                    break;
+            }
+            return params;
+        }
+
+        @Override
+        public Map<String, String> getComments() {
+            Map<String, String> map = super.getComments();
+            map.put(LINK_TYPE, "Link type as exported from Visum, e.g. Stufen_aufwaerts");
+            map.put(SPEED, "Walking speed in m/s");
+            map.put(DENSITY, "People density in P/m^2");
+            map.put(GAUGE, "Walking gauge in m, i.e. the part of the width that cannot be used");
+            map.put(CLEARANCE_TIME, "Platform clearance time in s");
+            return map;
+        }
+
+        @StringGetter(LINK_TYPE)
+        public String getLinkType() {
+            return linkType;
+        }
+
+        @StringSetter(LINK_TYPE)
+        public void setLinkType(String linkType) {
+            this.linkType = linkType;
+        }
+
+        @StringGetter(SPEED)
+        public double getSpeed() {
+            return speed;
+        }
+
+        @StringSetter(SPEED)
+        public void setSpeed(double speed) {
+            this.speed = speed;
+        }
+
+        @StringGetter(DENSITY)
+        public double getDensity() {
+            return density;
+        }
+
+        @StringSetter(DENSITY)
+        public void setDensity(double density) {
+            this.density = density;
+        }
+
+        @StringGetter(GAUGE)
+        public double getGauge() {
+            return gauge;
+        }
+
+        @StringSetter(GAUGE)
+        public void setGauge(double gauge) {
+            this.gauge = gauge;
+        }
+
+        @StringGetter(CLEARANCE_TIME)
+        public double getClearanceTime() {
+            return clearanceTime;
+        }
+
+        @StringSetter(CLEARANCE_TIME)
+        public void setClearanceTime(double clearanceTime) {
+            this.clearanceTime = clearanceTime;
+        }
+    }
+}
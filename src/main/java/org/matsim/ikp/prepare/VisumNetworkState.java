@@ -0,0 +1,141 @@
+package org.matsim.ikp.prepare;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** @author: davidwedekind */
+
+final class VisumNetworkState {
+
+    /**
+     * What an incremental conversion (see CreateNetworkFromVisumShpFile.updateNetwork) remembers about the shapefiles
+     * of the previous conversion: a 64 bit hash of the imported attributes of every node feature (by NO) and of every
+     * link feature (by NO, FROMNODENO and TONODENO), the id of the link created from a link feature, and the importer
+     * settings. Features whose hash is unchanged are not converted again.
+     *
+     * The state is kept next to the network output, together with the converted network in the format of the
+     * VisumNetworkCache, which the next incremental conversion patches.
+     */
+
+    private static final int MAGIC = 0x494B5053; // "IKPS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // separates the parts of link keys; does not occur in Visum numbers
+    private static final char KEY_SEPARATOR = '\u001F';
+
+    final String settings;
+    final Map<String, Long> nodeHashes = new LinkedHashMap<>();
+    final Map<String, LinkEntry> links = new LinkedHashMap<>();
+
+    VisumNetworkState(String settings) {
+        this.settings = settings;
+    }
+
+    static Path getStateFile(Path netOutput) {
+        return netOutput.resolveSibling(netOutput.getFileName() + ".state");
+    }
+
+    static Path getNetworkFile(Path netOutput) {
+        return netOutput.resolveSibling(netOutput.getFileName() + ".bin");
+    }
+
+    static String createLinkKey(String visumId, String fromNodeId, String toNodeId) {
+        return visumId + KEY_SEPARATOR + fromNodeId + KEY_SEPARATOR + toNodeId;
+    }
+
+    static String getVisumId(String linkKey) {
+        return linkKey.substring(0, linkKey.indexOf(KEY_SEPARATOR));
+    }
+
+    /**
+     * FNV-1a over the String representations of the values; null values and the end of every value are hashed as well.
+     */
+    static long hash(Object... values) {
+        long hash = FNV_OFFSET_BASIS;
+        for (Object value: values) {
+            if (value != null) {
+                String string = value.toString();
+                for (int i = 0; i < string.length(); i++) {
+                    hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+                }
+                hash = (hash ^ 0xFFFE) * FNV_PRIME;
+            } else {
+                hash = (hash ^ 0xFFFF) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    static VisumNetworkState read(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException(String.format("%s is not a Visum network state file", file));
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException(String.format("%s has format version %d, expected %d", file, version, FORMAT_VERSION));
+            }
+            VisumNetworkState state = new VisumNetworkState(in.readUTF());
+            int nodeCount = in.readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                state.nodeHashes.put(in.readUTF(), in.readLong());
+            }
+            int linkCount = in.readInt();
+            for (int i = 0; i < linkCount; i++) {
+                String key = in.readUTF();
+                long hash = in.readLong();
+                String linkId = in.readBoolean() ? in.readUTF() : null;
+                state.links.put(key, new LinkEntry(hash, linkId));
+            }
+            return state;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void write(Path file) {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(settings);
+                out.writeInt(nodeHashes.size());
+                for (Map.Entry<String, Long> node: nodeHashes.entrySet()) {
+                    out.writeUTF(node.getKey());
+                    out.writeLong(node.getValue());
+                }
+                out.writeInt(links.size());
+                for (Map.Entry<String, LinkEntry> link: links.entrySet()) {
+                    out.writeUTF(link.getKey());
+                    out.writeLong(link.getValue().hash);
+                    out.writeBoolean(link.getValue().linkId != null);
+                    if (link.getValue().linkId != null) {
+                        out.writeUTF(link.getValue().linkId);
+                    }
+                }
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    static final class LinkEntry {
+        final long hash;
+        // id of the link created from the feature; null for features of irrelevant link types
+        final String linkId;
+
+        LinkEntry(long hash, String linkId) {
+            this.hash = hash;
+            this.linkId = linkId;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.matsim.ikp.prepare;
+
+import org.apache.log4j.Logger;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.ikp.network.NetworkIndex;
+
+import java.util.*;
+
+/** @author: davidwedekind */
+
+public final class VisumNetworkValidator {
+
+    /**
+     * Topology checks for networks converted by CreateNetworkFromVisumShpFile, meant to run right after the conversion
+     * instead of finding problems when agents get stuck in the QSim:
+     *
+     * - near-duplicate nodes (closer than a tolerance), found with an STR-tree over all node coordinates,
+     * - dangling nodes per mode, i.e. nodes that can be entered but not left (or left but not entered),
+     * - strongly connected components per mode (iterative Tarjan on a compact adjacency array).
+     *
+     * All checks run in O(n log n) or better in the number of nodes and links.
+     */
+
+    private static final Logger log = Logger.getLogger(VisumNetworkValidator.class);
+
+    public static double DUPLICATE_NODE_TOLERANCE = 0.1; // in m
+    // maximum number of element ids listed per problem in the log
+    public static int MAX_REPORTED_IDS = 10;
+
+    private VisumNetworkValidator() {
+    }
+
+    public static Report validate(Network net, Set<String> modes) {
+        log.info("Start validating network");
+        NetworkIndex index = NetworkIndex.of(net);
+
+        Report report = new Report();
+        findNearDuplicateNodes(index, report);
+        for (String mode: modes) {
+            analyseConnectivity(index, mode, report);
+        }
+        report.log();
+        return report;
+    }
+
+
+    private static void findNearDuplicateNodes(NetworkIndex net, Report report) {
+        STRtree index = new STRtree();
+        for (int i = 0; i < net.getNumberOfNodes(); i++) {
+            Coord coord = net.getNode(i).getCoord();
+            index.insert(new Envelope(coord.getX(), coord.getX(), coord.getY(), coord.getY()), i);
+        }
+        index.build();
+
+        double tol = DUPLICATE_NODE_TOLERANCE;
+        for (int i = 0; i < net.getNumberOfNodes(); i++) {
+            Coord coord = net.getNode(i).getCoord();
+            Envelope search = new Envelope(coord.getX() - tol, coord.getX() + tol, coord.getY() - tol, coord.getY() + tol);
+            for (Object item: index.query(search)) {
+                int other = (Integer) item;
+                // every pair is reported once
+                if (other > i && distance(coord, net.getNode(other).getCoord()) <= tol) {
+                    report.nearDuplicateNodes.add(List.of(net.getNode(i).getId(), net.getNode(other).getId()));
+                }
+            }
+        }
+    }
+
+    private static double distance(Coord c1, Coord c2) {
+        double dx = c1.getX() - c2.getX();
+        double dy = c1.getY() - c2.getY();
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+
+    private static void analyseConnectivity(NetworkIndex net, String mode, Report report) {
+        int n = net.getNumberOfNodes();
+
+        // adjacency of the mode's subnetwork in compressed sparse row form
+        boolean[] hasMode = new boolean[net.getNumberOfLinks()];
+        int[] outDegree = new int[n];
+        int[] inDegree = new int[n];
+        for (int link = 0; link < hasMode.length; link++) {
+            if (net.getLink(link).getAllowedModes().contains(mode)) {
+                hasMode[link] = true;
+                outDegree[net.getFromNode(link)]++;
+                inDegree[net.getToNode(link)]++;
+            }
+        }
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + outDegree[i];
+        }
+        int[] targets = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int link = 0; link < hasMode.length; link++) {
+            if (hasMode[link]) {
+                targets[fill[net.getFromNode(link)]++] = net.getToNode(link);
+            }
+        }
+
+        List<Id<Node>> dangling = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            // nodes without any link of the mode are not part of the mode's subnetwork
+            if ((inDegree[i] == 0) != (outDegree[i] == 0)) {
+                dangling.add(net.getNode(i).getId());
+            }
+        }
+        report.danglingNodes.put(mode, dangling);
+
+        int[] component = stronglyConnectedComponents(n, offsets, targets);
+        int[] componentSizes = new int[n];
+        int largest = -1;
+        int components = 0;
+        for (int i = 0; i < n; i++) {
+            if (inDegree[i] == 0 && outDegree[i] == 0) {
+                continue;
+            }
+            if (componentSizes[component[i]]++ == 0) {
+                components++;
+            }
+            if (largest == -1 || componentSizes[component[i]] > componentSizes[largest]) {
+                largest = component[i];
+            }
+        }
+        List<Id<Node>> outsideLargest = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if ((inDegree[i] > 0 || outDegree[i] > 0) && component[i] != largest) {
+                outsideLargest.add(net.getNode(i).getId());
+            }
+        }
+        report.componentCounts.put(mode, components);
+        report.nodesOutsideLargestComponent.put(mode, outsideLargest);
+    }
+
+
+    /**
+     * Iterative version of Tarjan's algorithm, so that deep station networks do not overflow the call stack.
+     *
+     * @return the component number of every node
+     */
+    private static int[] stronglyConnectedComponents(int n, int[] offsets, int[] targets) {
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] component = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        int[] nextEdge = new int[n];
+        Arrays.fill(index, -1);
+
+        int stackSize = 0;
+        int nextIndex = 0;
+        int nextComponent = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = low[root] = nextIndex++;
+            nextEdge[root] = offsets[root];
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (nextEdge[v] < offsets[v + 1]) {
+                    int w = targets[nextEdge[v]++];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = nextIndex++;
+                        nextEdge[w] = offsets[w];
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[depth++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                } else {
+                    depth--;
+                    if (depth > 0) {
+                        int parent = callStack[depth - 1];
+                        low[parent] = Math.min(low[parent], low[v]);
+                    }
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--stackSize];
+                            onStack[w] = false;
+                            component[w] = nextComponent;
+                        } while (w != v);
+                        nextComponent++;
+                    }
+                }
+            }
+        }
+        return component;
+    }
+
+
+    public static final class Report {
+        private final List<List<Id<Node>>> nearDuplicateNodes = new ArrayList<>();
+        private final Map<String, List<Id<Node>>> danglingNodes = new TreeMap<>();
+        private final Map<String, Integer> componentCounts = new TreeMap<>();
+        private final Map<String, List<Id<Node>>> nodesOutsideLargestComponent = new TreeMap<>();
+
+        public List<List<Id<Node>>> getNearDuplicateNodes() {
+            return nearDuplicateNodes;
+        }
+
+        public List<Id<Node>> getDanglingNodes(String mode) {
+            return danglingNodes.getOrDefault(mode, List.of());
+        }
+
+        public int getComponentCount(String mode) {
+            return componentCounts.getOrDefault(mode, 0);
+        }
+
+        public List<Id<Node>> getNodesOutsideLargestComponent(String mode) {
+            return nodesOutsideLargestComponent.getOrDefault(mode, List.of());
+        }
+
+        public boolean isValid() {
+            return nearDuplicateNodes.isEmpty()
+                    && danglingNodes.values().stream().allMatch(List::isEmpty)
+                    && nodesOutsideLargestComponent.values().stream().allMatch(List::isEmpty);
+        }
+
+        private void log() {
+            if (nearDuplicateNodes.isEmpty()) {
+                log.info("No near-duplicate nodes");
+            } else {
+                log.warn(String.format("%d pairs of nodes closer than %.2f m: %s", nearDuplicateNodes.size(), DUPLICATE_NODE_TOLERANCE,
+                        sample(nearDuplicateNodes)));
+            }
+            for (String mode: componentCounts.keySet()) {
+                List<Id<Node>> dangling = danglingNodes.get(mode);
+                if (!dangling.isEmpty()) {
+                    log.warn(String.format("Mode %s: %d dangling nodes (only entering or only leaving links): %s", mode, dangling.size(), sample(dangling)));
+                }
+                List<Id<Node>> outside = nodesOutsideLargestComponent.get(mode);
+                if (outside.isEmpty()) {
+                    log.info(String.format("Mode %s: network is strongly connected", mode));
+                } else {
+                    log.warn(String.format("Mode %s: %d strongly connected components, %d nodes outside the largest one: %s",
+                            mode, componentCounts.get(mode), outside.size(), sample(outside)));
+                }
+            }
+        }
+
+        private static String sample(List<?> elements) {
+            return elements.size() <= MAX_REPORTED_IDS ? elements.toString() : elements.subList(0, MAX_REPORTED_IDS) + " ...";
+        }
+    }
+}
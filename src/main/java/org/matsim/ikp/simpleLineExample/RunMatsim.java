@@ -9,6 +9,9 @@ import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.ConfigWriter;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.ikp.analysis.StationAnalysisConfigGroup;
+import org.matsim.ikp.analysis.StationAnalysisModule;
+import org.matsim.ikp.prepare.VisumNetworkCache;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -22,17 +25,29 @@ public class RunMatsim {
         log.info("Config directory: " + input.configDir);
 
         // -- CONFIG --
-        Config config = ConfigUtils.loadConfig(input.configDir);
+        Config config = ConfigUtils.loadConfig(input.configDir, new StationAnalysisConfigGroup());
+        StationAnalysisModule.prepareConfig(config);
 
         Path path = Paths.get(config.controler().getOutputDirectory());
         new ConfigWriter(config).write(path.resolve("config_output.xml").toString());
 
 
         // -- SCENARIO --
-        Scenario scenario = ScenarioUtils.loadScenario(config);
+        Scenario scenario;
+        if (input.networkCache != null) {
+            // network comes from a binary network cache written by CreateNetworkFromVisumShpFile instead of network.xml
+            log.info("Network cache: " + input.networkCache);
+            config.network().setInputFile(null);
+            scenario = ScenarioUtils.createScenario(config);
+            VisumNetworkCache.read(Paths.get(input.networkCache), scenario.getNetwork());
+            ScenarioUtils.loadScenario(scenario);
+        } else {
+            scenario = ScenarioUtils.loadScenario(config);
+        }
 
         // -- CONTROLER --
         Controler controler = new Controler(scenario);
+        controler.addOverridingModule(new StationAnalysisModule());
 
         controler.run();
 
@@ -43,5 +58,8 @@ public class RunMatsim {
         @Parameter(names = "-config")
         private String configDir;
 
+        @Parameter(names = "-networkCache")
+        private String networkCache;
+
     }
 }
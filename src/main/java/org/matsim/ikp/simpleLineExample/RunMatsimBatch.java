@@ -0,0 +1,166 @@
+package org.matsim.ikp.simpleLineExample;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.gbl.MatsimRandom;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.ikp.analysis.StationAnalysisConfigGroup;
+import org.matsim.ikp.analysis.StationAnalysisModule;
+import org.matsim.ikp.prepare.VisumNetworkCache;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RunMatsimBatch {
+    private static final Logger log = Logger.getLogger(RunMatsimBatch.class);
+
+    /**
+     * Runs several scenario variants in one JVM. The variants differ in their config (e.g. population file or
+     * behavioural parameters) but share network and vehicle types, which are loaded once and handed to every
+     * variant read-only.
+     *
+     * Every variant runs in its own output directory, named after the directory of its config file (PrepareScenario
+     * writes every variant as config.xml into a directory of its own) and, for other file names, the file name.
+     * Variants that would share an output directory are rejected before the first run.
+     *
+     * Variants run one after the other, since matsim keeps state in static fields (MatsimRandom, the output directory
+     * logging). The random numbers are reset to the seed of every variant, so each result equals that of a separate run.
+     */
+
+    public static void main(String[] args) {
+        RunMatsimBatch.Input input = new RunMatsimBatch.Input();
+        JCommander.newBuilder().addObject(input).build().parse(args);
+        log.info("Variant configs: " + input.configs);
+        log.info("Output root directory: " + input.outputRoot);
+
+        List<Variant> variants = new ArrayList<>();
+        for (String configFile : input.configs) {
+            variants.add(new Variant(Paths.get(configFile), Paths.get(input.outputRoot)));
+        }
+        checkOutputDirectories(variants);
+
+        Config first = ConfigUtils.loadConfig(input.configs.get(0));
+        Network network = loadNetwork(first, input.networkCache);
+        Vehicles vehicleTypes = loadVehicleTypes(first);
+        run(variants, network, vehicleTypes.getVehicleTypes().values());
+    }
+
+    public static void run(List<Variant> variants, Network network, Collection<VehicleType> vehicleTypes) {
+        checkOutputDirectories(variants);
+        for (Variant variant : variants) {
+            variant.run(network, vehicleTypes);
+        }
+    }
+
+    /**
+     * Fails if two variants would write to the same output directory; the controler would delete the first one's output.
+     */
+    static void checkOutputDirectories(List<Variant> variants) {
+        Map<Path, Path> configByOutputDirectory = new HashMap<>();
+        for (Variant variant : variants) {
+            Path other = configByOutputDirectory.put(variant.outputDirectory, variant.configFile);
+            if (other != null) {
+                throw new IllegalArgumentException(String.format("Variants %s and %s would both write to %s",
+                        other, variant.configFile, variant.outputDirectory));
+            }
+        }
+    }
+
+    private static Network loadNetwork(Config config, String networkCache) {
+        if (networkCache != null) {
+            log.info("Loading shared network from cache " + networkCache);
+            return VisumNetworkCache.read(Paths.get(networkCache));
+        }
+        String networkFile = config.network().getInputFileURL(config.getContext()).toString();
+        log.info("Loading shared network from " + networkFile);
+        return NetworkUtils.readNetwork(networkFile);
+    }
+
+    private static Vehicles loadVehicleTypes(Config config) {
+        Vehicles vehicles = VehicleUtils.createVehiclesContainer();
+        if (config.vehicles().getVehiclesFile() != null) {
+            log.info("Loading shared vehicle types from " + config.vehicles().getVehiclesFile());
+            new MatsimVehicleReader(vehicles).readURL(config.vehicles().getVehiclesFileUrl(config.getContext()));
+        }
+        return vehicles;
+    }
+
+
+    public static final class Variant {
+        private final Path configFile;
+        private final Path outputDirectory;
+
+        public Variant(Path configFile, Path outputRoot) {
+            this.configFile = configFile;
+            this.outputDirectory = outputRoot.resolve(getName(configFile));
+        }
+
+        Path getOutputDirectory() {
+            return outputDirectory;
+        }
+
+        private static String getName(Path configFile) {
+            String fileName = configFile.getFileName().toString().replaceFirst("\\.xml(\\.gz)?$", "");
+            Path directory = configFile.toAbsolutePath().normalize().getParent();
+            if (directory == null || directory.getFileName() == null) {
+                return fileName;
+            }
+            String name = directory.getFileName().toString();
+            return fileName.equals("config") ? name : name + "_" + fileName;
+        }
+
+        void run(Network network, Collection<VehicleType> vehicleTypes) {
+            log.info(String.format("Running variant %s in %s", configFile, outputDirectory));
+            Config config = ConfigUtils.loadConfig(configFile.toString(), new StationAnalysisConfigGroup());
+            StationAnalysisModule.prepareConfig(config);
+            config.controler().setOutputDirectory(outputDirectory.toString());
+            // the previous variant has drawn from the shared random numbers
+            MatsimRandom.reset(config.global().getRandomSeed());
+
+            // network and vehicle types are shared, so the variant must not load its own
+            config.network().setInputFile(null);
+            config.vehicles().setVehiclesFile(null);
+
+            MutableScenario scenario = (MutableScenario) ScenarioUtils.createScenario(config);
+            scenario.setNetwork(network);
+            for (VehicleType type : vehicleTypes) {
+                scenario.getVehicles().addVehicleType(type);
+            }
+            ScenarioUtils.loadScenario(scenario);
+
+            Controler controler = new Controler(scenario);
+            controler.addOverridingModule(new StationAnalysisModule());
+            controler.run();
+        }
+    }
+
+
+    private static class Input {
+
+        @Parameter(names = "-configs", variableArity = true, required = true, description = "Config file of every variant; network and vehicles are taken from the first one")
+        private List<String> configs = new ArrayList<>();
+
+        @Parameter(names = "-outputRoot", required = true)
+        private String outputRoot;
+
+        @Parameter(names = "-networkCache", description = "Binary network cache to use instead of the network file of the first config")
+        private String networkCache;
+
+    }
+}
@@ -7,6 +7,7 @@ import org.matsim.api.core.v01.TransportMode;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.ConfigWriter;
+import org.matsim.core.config.groups.QSimConfigGroup;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
 
 import java.nio.file.Path;
@@ -25,13 +26,18 @@ public class CreateConfig {
         JCommander.newBuilder().addObject(input).build().parse(args);
         log.info("Config template: " + input.template);
         log.info("Output directory: " + input.outputDir);
+        log.info("Profile: " + input.profile);
 
         Config config = ConfigUtils.loadConfig(input.template);
-        CreateConfig.writeConfig(CreateConfig.modifyConfig(config), Paths.get(input.outputDir));
+        CreateConfig.writeConfig(CreateConfig.modifyConfig(config, input.profile), Paths.get(input.outputDir));
 
     }
 
     public static Config modifyConfig(Config config){
+        return modifyConfig(config, Profile.DEFAULT);
+    }
+
+    public static Config modifyConfig(Config config, Profile profile){
 
         // global
         config.global().setCoordinateSystem("Atlantis");
@@ -52,10 +58,45 @@ public class CreateConfig {
         // qsim
         config.qsim().setMainModes(Collections.singletonList(TransportMode.walk));
 
+        if (profile == Profile.PARALLEL) {
+            applyParallelProfile(config);
+        }
 
         return config;
     }
 
+    /**
+     * Spreads the mobsim over the cores given by global.numberOfThreads. The network is split between the qsim
+     * threads and events are handed to the handlers on separate threads, synchronized once per time step.
+     *
+     * All pedestrians share one vehicle type and thus one speed, so nobody can overtake and the plain FIFO queue with
+     * fast capacity update is kept; PassingQ or kinematic waves would only add work per link. Snapshots are not needed
+     * for these runs and are switched off.
+     *
+     * The events of a parallel run are not guaranteed to be identical to those of a sequential run, or to those of
+     * another parallel run: the order of events within a time step depends on the threads, and so may the order in
+     * which agents enter a full link. Compare runs by their statistics (see ParallelProfileBenchmark and
+     * CreateConfigTest), not by their events files.
+     */
+    public static void applyParallelProfile(Config config) {
+        int threads = config.global().getNumberOfThreads();
+
+        // qsim
+        config.qsim().setNumberOfThreads(threads);
+        config.qsim().setLinkDynamics(QSimConfigGroup.LinkDynamics.FIFO);
+        config.qsim().setTrafficDynamics(QSimConfigGroup.TrafficDynamics.queue);
+        config.qsim().setUsingFastCapacityUpdate(true);
+        config.qsim().setSnapshotStyle(QSimConfigGroup.SnapshotStyle.queue);
+
+        // events
+        config.parallelEventHandling().setNumberOfThreads(Math.max(1, threads / 2));
+        config.parallelEventHandling().setSynchronizeOnSimSteps(true);
+
+        // snapshots
+        config.controler().setSnapshotFormat(Collections.emptySet());
+        config.controler().setWriteSnapshotsInterval(0);
+    }
+
 
     public static void writeConfig(Config config, Path path) {
         log.info("Writing config to " + path.resolve(CONFIG_FILE_NAME));
@@ -74,5 +115,15 @@ public class CreateConfig {
         @Parameter(names = "-outputDir")
         private String outputDir;
 
+        @Parameter(names = "-profile")
+        private Profile profile = Profile.DEFAULT;
+
+    }
+
+    public enum Profile {
+        /** single-threaded mobsim and event handling as in matsim's defaults */
+        DEFAULT,
+        /** multi-threaded mobsim and event handling for large walk-only station networks */
+        PARALLEL
     }
 }
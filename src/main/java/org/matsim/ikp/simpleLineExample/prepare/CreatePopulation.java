@@ -9,13 +9,21 @@ import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.population.*;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.population.PopulationUtils;
+import org.matsim.ikp.prepare.CreatePopulationFromTimetable;
+import org.matsim.ikp.prepare.ParallelPopulationGenerator;
+import org.matsim.ikp.prepare.PersonType;
+import org.matsim.ikp.prepare.PlanTemplates;
+import org.matsim.ikp.prepare.StreamingPopulationSink;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class CreatePopulation {
     private static final Logger log = Logger.getLogger(CreatePopulation.class);
     private static final String POP_FILE_NAME = "plans.xml";
+    private static final long RANDOM_SEED = 4711;
 
 
     public static void main(String[] args) {
@@ -26,147 +34,97 @@ public class CreatePopulation {
         JCommander.newBuilder().addObject(input).build().parse(args);
         log.info("Output directory: " + input.outputDir);
 
-        CreatePopulation.writePopulation(CreatePopulation.createSimplePopulation(), Paths.get(input.outputDir));
+        CreatePopulation.streamSimplePopulation(Paths.get(input.outputDir), 1);
 
     }
 
     public static Population createSimplePopulation(){
-        Population pop = PopulationUtils.createPopulation(ConfigUtils.createConfig());
-        PopulationFactory fac = pop.getFactory();
-
-        // disembark 4711 tr_1_1 -> ex_1_3
-        for (int i = 0; i < 20; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,160), new Coord(200, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_2 -> ex_1_3
-        for (int i = 20; i < 30; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,140), new Coord(200, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_3 -> ex_1_3
-        for (int i = 30; i < 35; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,120), new Coord(200, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_4 -> ex_1_3
-        for (int i = 35; i < 40; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,100), new Coord(200, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_1 -> ex_1_5
-        for (int i = 40; i < 60; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,160), new Coord(0, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_2 -> ex_1_5
-        for (int i = 60; i < 70; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,140), new Coord(0, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_3 -> ex_1_5
-        for (int i = 70; i < 75; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,120), new Coord(0, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_4 -> ex_1_5
-        for (int i = 75; i < 80; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,100), new Coord(0, 260), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_1 -> ex_2_3
-        for (int i = 80; i < 85; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,160), new Coord(200, 0), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_2 -> ex_2_3
-        for (int i = 85; i < 90; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,140), new Coord(200, 0), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_3 -> ex_2_3
-        for (int i = 90; i < 100; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,120), new Coord(200, 0), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_4 -> ex_2_3
-        for (int i = 100; i < 120; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,100), new Coord(200, 0), TransportMode.car, 25260., 26000.));
-        }
-
-        // disembark 4711 tr_1_1 -> ex_2_5
-        for (int i = 120; i < 125; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,160), new Coord(0, 0), TransportMode.car, 25260., 26000.));
-        }
+        return createSimplePopulation(1);
+    }
 
-        // disembark 4711 tr_1_2 -> ex_2_5
-        for (int i = 125; i < 130; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,140), new Coord(0, 0), TransportMode.car, 25260., 26000.));
-        }
+    /**
+     * The plans share plan elements (see PlanTemplates); pass the population to PlanTemplates.detach before modifying
+     * or simulating it.
+     */
+    public static Population createSimplePopulation(int numberOfThreads){
+        Population pop = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+        createSimplePopulation(pop.getFactory(), numberOfThreads, pop::addPerson);
+        return pop;
+    }
 
-        // disembark 4711 tr_1_3 -> ex_2_5
-        for (int i = 130; i < 140; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,120), new Coord(0, 0), TransportMode.car, 25260., 26000.));
+    /**
+     * Writes the simple population while it is generated instead of building it in memory first.
+     */
+    public static void streamSimplePopulation(Path path, int numberOfThreads) {
+        try (StreamingPopulationSink sink = new StreamingPopulationSink(path.resolve(POP_FILE_NAME))) {
+            createSimplePopulation(PopulationUtils.getFactory(), numberOfThreads, sink);
+            sink.finish();
         }
+    }
 
-        // disembark 4711 tr_1_4 -> ex_2_5
-        for (int i = 140; i < 160; i++) {
-            pop.addPerson(createPerson(fac, PersonType.ZA, "disembark_4711_" + i, new Coord(150,100), new Coord(0, 0), TransportMode.car, 25260., 26000.));
+    private static void createSimplePopulation(PopulationFactory fac, int numberOfThreads, Consumer<Person> persons){
+        List<Group> groups = List.of(
+                // disembark 4711 tr_1_1 -> ex_1_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 0, 20, new Coord(150, 160), new Coord(200, 260), 25260., 26000.),
+                // disembark 4711 tr_1_2 -> ex_1_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 20, 30, new Coord(150, 140), new Coord(200, 260), 25260., 26000.),
+                // disembark 4711 tr_1_3 -> ex_1_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 30, 35, new Coord(150, 120), new Coord(200, 260), 25260., 26000.),
+                // disembark 4711 tr_1_4 -> ex_1_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 35, 40, new Coord(150, 100), new Coord(200, 260), 25260., 26000.),
+                // disembark 4711 tr_1_1 -> ex_1_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 40, 60, new Coord(150, 160), new Coord(0, 260), 25260., 26000.),
+                // disembark 4711 tr_1_2 -> ex_1_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 60, 70, new Coord(150, 140), new Coord(0, 260), 25260., 26000.),
+                // disembark 4711 tr_1_3 -> ex_1_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 70, 75, new Coord(150, 120), new Coord(0, 260), 25260., 26000.),
+                // disembark 4711 tr_1_4 -> ex_1_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 75, 80, new Coord(150, 100), new Coord(0, 260), 25260., 26000.),
+                // disembark 4711 tr_1_1 -> ex_2_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 80, 85, new Coord(150, 160), new Coord(200, 0), 25260., 26000.),
+                // disembark 4711 tr_1_2 -> ex_2_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 85, 90, new Coord(150, 140), new Coord(200, 0), 25260., 26000.),
+                // disembark 4711 tr_1_3 -> ex_2_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 90, 100, new Coord(150, 120), new Coord(200, 0), 25260., 26000.),
+                // disembark 4711 tr_1_4 -> ex_2_3
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 100, 120, new Coord(150, 100), new Coord(200, 0), 25260., 26000.),
+                // disembark 4711 tr_1_1 -> ex_2_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 120, 125, new Coord(150, 160), new Coord(0, 0), 25260., 26000.),
+                // disembark 4711 tr_1_2 -> ex_2_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 125, 130, new Coord(150, 140), new Coord(0, 0), 25260., 26000.),
+                // disembark 4711 tr_1_3 -> ex_2_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 130, 140, new Coord(150, 120), new Coord(0, 0), 25260., 26000.),
+                // disembark 4711 tr_1_4 -> ex_2_5
+                new Group(PersonType.ZA, "4711", "disembark_4711_", 140, 160, new Coord(150, 100), new Coord(0, 0), 25260., 26000.)
+        );
+
+        // the persons of this population are fully determined by their group, so the random streams stay unused
+        // and all persons of a group share their plan elements
+        PlanTemplates templates = new PlanTemplates(fac);
+        try (ParallelPopulationGenerator<Group> generator = new ParallelPopulationGenerator<>(RANDOM_SEED, numberOfThreads, (group, random, out) -> {
+            PlanTemplates.Template template = templates.createTemplate(group.type.getOriginActivity(), group.origin,
+                    group.originEndTime, TransportMode.car, group.type.getDestinationActivity(), group.destination, group.destinationStartTime);
+            for (int i = group.firstNumber; i < group.endNumber; i++) {
+                out.accept(createPerson(fac, template, group.type, group.trainId, group.idPrefix + i));
+            }
+        }, persons)) {
+            groups.forEach(generator::add);
+            generator.flush();
         }
-
-        return pop;
     }
 
 
 
 
-    private static Plan createPlan(PopulationFactory fac, String origin, String destination, Coord originCoord, Coord destinationCoord, String mode, double originEndTime, double destinationStartTime) {
-
-        // create a plan with chain activity -> leg -> activity
-        Plan plan = fac.createPlan();
-
-        Activity originActivity = fac.createActivityFromCoord(origin, originCoord);
-        originActivity.setEndTime(originEndTime);
-        plan.addActivity(originActivity);
-
-        Leg toDestination = fac.createLeg(mode);
-        plan.addLeg(toDestination);
-
-        Activity destinationActivity = fac.createActivityFromCoord(destination, destinationCoord);
-        destinationActivity.setStartTime(destinationStartTime);
-        plan.addActivity(destinationActivity);
-
-        return plan;
-    }
-
-
-    private static Person createPerson(PopulationFactory fac, PersonType type, String id, Coord origin, Coord destination, String mode, double originEndTime, double destinationStartTime){
+    private static Person createPerson(PopulationFactory fac, PlanTemplates.Template template, PersonType type, String trainId, String id){
         Person person = fac.createPerson(Id.createPersonId(id));
 
         person.getAttributes().putAttribute("subpopulation", type.toString());
+        // the train the person leaves or boards, e.g. for the PlatformClearanceAnalyzer
+        person.getAttributes().putAttribute(CreatePopulationFromTimetable.TRAIN_ID_ATTRIBUTE, trainId);
 
-        String originActivity = null;
-        String destinationActivity = null;
-
-        switch (type){
-            case QE:
-                originActivity = "station_entrance";
-                destinationActivity = "train_boarding";
-                break;
-
-            case ZA:
-                originActivity = "train_disembarking";
-                destinationActivity = "station_exit";
-                break;
-
-            case UM:
-                originActivity = "train_disembarking";
-                destinationActivity = "train_boarding";
-                break;
-
-        }
-
-        Plan plan = createPlan(fac, originActivity, destinationActivity, origin, destination, mode, originEndTime, destinationStartTime);
+        // create a plan with chain activity -> leg -> activity; persons with equal plans share the plan elements
+        Plan plan = template.createPlan();
         person.addPlan(plan);
         return person;
 
@@ -189,9 +147,27 @@ public class CreatePopulation {
 
     }
 
-    private enum PersonType{
-        QE,
-        ZA,
-        UM
+    private static final class Group {
+        private final PersonType type;
+        private final String trainId;
+        private final String idPrefix;
+        private final int firstNumber;
+        private final int endNumber;
+        private final Coord origin;
+        private final Coord destination;
+        private final double originEndTime;
+        private final double destinationStartTime;
+
+        Group(PersonType type, String trainId, String idPrefix, int firstNumber, int endNumber, Coord origin, Coord destination, double originEndTime, double destinationStartTime) {
+            this.type = type;
+            this.trainId = trainId;
+            this.idPrefix = idPrefix;
+            this.firstNumber = firstNumber;
+            this.endNumber = endNumber;
+            this.origin = origin;
+            this.destination = destination;
+            this.originEndTime = originEndTime;
+            this.destinationStartTime = destinationStartTime;
+        }
     }
 }
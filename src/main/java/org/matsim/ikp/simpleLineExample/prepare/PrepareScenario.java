@@ -3,9 +3,25 @@ package org.matsim.ikp.simpleLineExample.prepare;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.apache.log4j.Logger;
+import org.matsim.core.config.ConfigUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public class PrepareScenario {
     private static final Logger log = Logger.getLogger(PrepareScenario.class);
@@ -14,28 +30,118 @@ public class PrepareScenario {
     public static void main(String[] args) {
         PrepareScenario.Input input = new PrepareScenario.Input();
         JCommander.newBuilder().addObject(input).build().parse(args);
-        log.info("Output directory: " + input.outputDir);
+        log.info("Output directories: " + input.outputDirs);
 
-        Path outputPath = Paths.get(input.outputDir);
+        ExecutorService executor = Executors.newFixedThreadPool(input.threads);
+        StageTimer timer = new StageTimer();
+        try {
+            // every output directory is an independent shard of the task graph
+            List<CompletableFuture<Void>> scenarios = new ArrayList<>();
+            for (String outputDir : input.outputDirs) {
+                scenarios.add(prepare(Paths.get(outputDir), executor, timer));
+            }
+            CompletableFuture.allOf(scenarios.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } finally {
+            executor.shutdown();
+        }
+        timer.log();
+    }
+
+    /**
+     * Creates network, population, vehicle types and config of one scenario as independent tasks on the executor.
+     * Each artifact is written as soon as it is created, so writing one artifact overlaps with creating the others;
+     * the population is written while it is generated.
+     */
+    public static CompletableFuture<Void> prepare(Path outputPath, ExecutorService executor, StageTimer timer) {
+        try {
+            Files.createDirectories(outputPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
         // create network
-        CreateNetwork.writeNetwork(CreateNetwork.createSimpleStationNetwork(), outputPath);
+        CompletableFuture<Void> network = CompletableFuture
+                .supplyAsync(() -> timer.time("create network", CreateNetwork::createSimpleStationNetwork), executor)
+                .thenAcceptAsync(net -> timer.run("write network", () -> CreateNetwork.writeNetwork(net, outputPath)), executor);
 
         // create population
-        CreatePopulation.writePopulation(CreatePopulation.createSimplePopulation(), outputPath);
+        CompletableFuture<Void> population = CompletableFuture
+                .runAsync(() -> timer.run("create and write population", () -> CreatePopulation.streamSimplePopulation(outputPath, 1)), executor);
 
         // create config
-        // CreateConfig.writeConfig(CreateConfig.modifyConfig(), outputPath);
+        CompletableFuture<Void> config = CompletableFuture
+                .supplyAsync(() -> timer.time("create config", () -> CreateConfig.modifyConfig(ConfigUtils.createConfig())), executor)
+                .thenAcceptAsync(cfg -> timer.run("write config", () -> CreateConfig.writeConfig(cfg, outputPath)), executor);
 
         // create vehicle types
-        CreateVehicleTypes.writeVehiclesFile(CreateVehicleTypes.create(), outputPath);
+        CompletableFuture<Void> vehicles = CompletableFuture
+                .supplyAsync(() -> timer.time("create vehicle types", CreateVehicleTypes::create), executor)
+                .thenAcceptAsync(veh -> timer.run("write vehicle types", () -> CreateVehicleTypes.writeVehiclesFile(veh, outputPath)), executor);
 
+        return CompletableFuture.allOf(network, population, config, vehicles);
     }
 
+
+    /**
+     * Sums up the time spent per stage over all scenarios and reports it together with the elapsed wall time.
+     */
+    public static final class StageTimer {
+        private final long start = System.nanoTime();
+        // stages in the order they were first finished
+        private final Map<String, Stage> stages = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        public <T> T time(String stage, Supplier<T> task) {
+            long t0 = System.nanoTime();
+            try {
+                return task.get();
+            } finally {
+                stages.computeIfAbsent(stage, k -> new Stage()).add(System.nanoTime() - t0);
+            }
+        }
+
+        public void run(String stage, Runnable task) {
+            time(stage, () -> {
+                task.run();
+                return null;
+            });
+        }
+
+        public void log() {
+            long wall = System.nanoTime() - start;
+            long busy = 0;
+            log.info("Timing per stage (summed over all scenarios):");
+            synchronized (stages) {
+                for (Map.Entry<String, Stage> e : stages.entrySet()) {
+                    long duration = e.getValue().nanos.get();
+                    busy += duration;
+                    log.info(String.format("  %-30s %5d x %10d ms", e.getKey(), e.getValue().count.get(), TimeUnit.NANOSECONDS.toMillis(duration)));
+                }
+            }
+            log.info(String.format("  %-30s %18d ms", "sum of all stages", TimeUnit.NANOSECONDS.toMillis(busy)));
+            log.info(String.format("  %-30s %18d ms", "wall time", TimeUnit.NANOSECONDS.toMillis(wall)));
+        }
+    }
+
+    private static final class Stage {
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong count = new AtomicLong();
+
+        void add(long duration) {
+            nanos.addAndGet(duration);
+            count.incrementAndGet();
+        }
+    }
+
+
     private static class Input {
 
-        @Parameter(names = "-outputDir")
-        private String outputDir;
+        @Parameter(names = "-outputDir", variableArity = true, description = "One or more output directories; each gets a complete scenario")
+        private List<String> outputDirs = new ArrayList<>();
+
+        @Parameter(names = "-threads")
+        private int threads = 4;
 
     }
 }
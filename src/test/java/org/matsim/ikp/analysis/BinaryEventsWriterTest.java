@@ -0,0 +1,70 @@
+package org.matsim.ikp.analysis;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author: davidwedekind
+ */
+public class BinaryEventsWriterTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@After
+	public void resetSettings() {
+		BinaryEventsWriter.BLOCK_SIZE = 65_536;
+	}
+
+	@Test
+	public final void eventsAreReadBackOverSeveralBlocks() {
+		BinaryEventsWriter.BLOCK_SIZE = 100;
+		Path file = Path.of(utils.getOutputDirectory()).resolve(BinaryEventsWriter.FILE_NAME);
+
+		try (BinaryEventsWriter writer = new BinaryEventsWriter(file)) {
+			for (int i = 0; i < 1_000; i++) {
+				Id<Link> link = Id.createLinkId("pf_" + i % 7);
+				writer.handleEvent(new PersonDepartureEvent(i, Id.createPersonId("p" + i % 50), link, "walk", "walk"));
+				writer.handleEvent(new LinkEnterEvent(i + 0.5, Id.createVehicleId("p" + i % 50), link));
+			}
+			writer.handleEvent(new PersonStuckEvent(2_000, Id.createPersonId("p0"), null, "walk"));
+		}
+
+		List<String> read = new ArrayList<>();
+		int[] blocks = {0};
+		BinaryEventsReader reader = BinaryEventsReader.read(file, block -> {
+			blocks[0]++;
+			for (int i = 0; i < block.size(); i++) {
+				read.add(block.getTimes()[i] + ";" + block.getTypes()[i] + ";" + block.getAgents()[i] + ";" + block.getReferences()[i]);
+			}
+		});
+
+		Assert.assertEquals(2_001, read.size());
+		Assert.assertEquals(21, blocks[0]);
+
+		String[] departure = read.get(2 * 123).split(";");
+		Assert.assertEquals(123., Double.parseDouble(departure[0]), 0.);
+		Assert.assertEquals(BinaryEventType.PERSON_DEPARTURE, BinaryEventType.fromCode(Byte.parseByte(departure[1])));
+		Assert.assertEquals(Id.createPersonId("p23"), reader.getPersonId(Integer.parseInt(departure[2])));
+		Assert.assertEquals(Id.createLinkId("pf_4"), reader.getLinkId(Integer.parseInt(departure[3])));
+
+		String[] enter = read.get(2 * 123 + 1).split(";");
+		Assert.assertEquals(BinaryEventType.LINK_ENTER, BinaryEventType.fromCode(Byte.parseByte(enter[1])));
+		Assert.assertEquals(Id.createVehicleId("p23"), reader.getVehicleId(Integer.parseInt(enter[2])));
+
+		String[] stuck = read.get(2_000).split(";");
+		Assert.assertEquals(BinaryEventType.PERSON_STUCK, BinaryEventType.fromCode(Byte.parseByte(stuck[1])));
+		Assert.assertEquals(-1, Integer.parseInt(stuck[3]));
+	}
+}
@@ -0,0 +1,91 @@
+package org.matsim.ikp.analysis;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.ikp.simpleLineExample.prepare.CreateNetwork;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author: davidwedekind
+ */
+public class CongestionHotspotDetectorTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public final void queuesAndSpillbackPerSnapshot() throws IOException {
+		// 50 m with a free flow travel time of 38 s; 20 m with 15 s and room for 37 pedestrians
+		Id<Link> walkway = Id.createLinkId("l_pf_1_pf_2");
+		Id<Link> crowded = Id.createLinkId("l_pf_2_pf_3");
+		String file = utils.getOutputDirectory() + CongestionHotspotDetector.FILE_NAME;
+
+		try (CongestionHotspotDetector detector = new CongestionHotspotDetector(CreateNetwork.createSimpleStationNetwork())) {
+			detector.start(file);
+			detector.handleEvent(new LinkEnterEvent(0., Id.createVehicleId("a"), walkway));
+			detector.handleEvent(new LinkEnterEvent(0., Id.createVehicleId("b"), walkway));
+			for (int i = 0; i < 40; i++) {
+				detector.handleEvent(new LinkEnterEvent(0., Id.createVehicleId("c" + i), crowded));
+			}
+			detector.handleEvent(new LinkLeaveEvent(30., Id.createVehicleId("a"), walkway));
+			Assert.assertEquals(0, detector.getTopQueues().length);
+
+			for (int i = 0; i < 40; i++) {
+				detector.handleEvent(new LinkLeaveEvent(120., Id.createVehicleId("c" + i), crowded));
+			}
+			// b has been waiting since the snapshot at 60 s, the crowded link is empty again
+			Assert.assertArrayEquals(new Id[]{walkway}, detector.getTopQueues());
+			Assert.assertArrayEquals(new Id[]{crowded}, detector.getTopSpillbacks());
+		}
+
+		List<String> rows = new ArrayList<>();
+		try (BufferedReader reader = IOUtils.getBufferedReader(file)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				rows.add(line);
+			}
+		}
+		Assert.assertEquals(Arrays.asList(
+				"time;metric;rank;linkId;linkType;value",
+				"60;queue;1;" + crowded + ";;40",
+				"60;queue;2;" + walkway + ";;1",
+				"60;spillback;1;" + crowded + ";;60",
+				"120;queue;1;" + crowded + ";;40",
+				"120;queue;2;" + walkway + ";;1",
+				"120;spillback;1;" + crowded + ";;120"), rows);
+	}
+
+	@Test
+	public final void heapReturnsLargestKeysInOrder() {
+		int items = 1000;
+		int k = 20;
+		IndexedMaxHeap heap = new IndexedMaxHeap(items);
+		double[] keys = new double[items];
+		Random random = new Random(4711);
+		for (int update = 0; update < 20_000; update++) {
+			int item = random.nextInt(items);
+			// a third of the updates removes the item
+			keys[item] = random.nextInt(3) == 0 ? 0. : random.nextDouble();
+			heap.set(item, keys[item]);
+		}
+
+		double[] expected = Arrays.stream(keys).filter(key -> key > 0.).sorted().toArray();
+		Assert.assertEquals(expected.length, heap.size());
+		int[] top = new int[k];
+		Assert.assertEquals(k, heap.top(k, top));
+		for (int i = 0; i < k; i++) {
+			Assert.assertEquals(expected[expected.length - 1 - i], heap.getKey(top[i]), 0.);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.matsim.ikp.analysis;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.ikp.simpleLineExample.prepare.CreateNetwork;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author: davidwedekind
+ */
+public class LinkOccupancyTrackerTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public final void densityAndLevelOfServicePerTimeBin() throws IOException {
+		// 50 m and 20 m long, both with the default width of 1 m
+		Id<Link> walkway = Id.createLinkId("l_pf_1_pf_2");
+		Id<Link> crowded = Id.createLinkId("l_pf_2_pf_3");
+		String file = utils.getOutputDirectory() + LinkOccupancyTracker.FILE_NAME;
+
+		try (LinkOccupancyTracker tracker = new LinkOccupancyTracker(CreateNetwork.createSimpleStationNetwork())) {
+			tracker.start(file);
+			tracker.handleEvent(new VehicleEntersTrafficEvent(0., Id.createPersonId("a"), walkway, Id.createVehicleId("a"), "walk", 1.));
+			tracker.handleEvent(new VehicleEntersTrafficEvent(0., Id.createPersonId("b"), walkway, Id.createVehicleId("b"), "walk", 1.));
+			for (int i = 0; i < 40; i++) {
+				tracker.handleEvent(new LinkEnterEvent(0., Id.createVehicleId("c" + i), crowded));
+			}
+			tracker.handleEvent(new LinkLeaveEvent(30., Id.createVehicleId("a"), walkway));
+			Assert.assertEquals(1, tracker.getOccupancy(walkway));
+			tracker.handleEvent(new VehicleLeavesTrafficEvent(90., Id.createPersonId("b"), walkway, Id.createVehicleId("b"), "walk", 1.));
+			for (int i = 0; i < 40; i++) {
+				tracker.handleEvent(new LinkLeaveEvent(120., Id.createVehicleId("c" + i), crowded));
+			}
+		}
+
+		List<String[]> rows = read(file);
+		Assert.assertArrayEquals(new String[]{"time", "link", "density", "los"}, rows.get(0));
+		Map<String, String[]> occupied = new HashMap<>();
+		for (String[] row : rows.subList(1, rows.size())) {
+			Assert.assertNull("one row per bin and link", occupied.put(row[0] + ";" + row[1], row));
+		}
+		// only the two occupied links in the first two minutes; nobody is on any link after 120 s
+		Assert.assertEquals(4, occupied.size());
+
+		// a for 30 s and b for 60 s on 50 m^2 in the first minute, b for 30 s in the second
+		Assert.assertArrayEquals(new String[]{"0", walkway.toString(), "0.030", "A"}, occupied.get("0;" + walkway));
+		Assert.assertArrayEquals(new String[]{"60", walkway.toString(), "0.010", "A"}, occupied.get("60;" + walkway));
+
+		// 40 persons on 20 m^2 leave 0.5 m^2 each
+		Assert.assertArrayEquals(new String[]{"0", crowded.toString(), "2.000", "E"}, occupied.get("0;" + crowded));
+		Assert.assertArrayEquals(new String[]{"60", crowded.toString(), "2.000", "E"}, occupied.get("60;" + crowded));
+	}
+
+	@Test
+	public final void levelOfServiceDependsOnFacility() {
+		Assert.assertEquals(FruinLevelOfService.F, FruinLevelOfService.of(FruinLevelOfService.Facility.WALKWAY, 2.5));
+		Assert.assertEquals(FruinLevelOfService.E, FruinLevelOfService.of(FruinLevelOfService.Facility.STAIRWAY, 2.5));
+		Assert.assertEquals(FruinLevelOfService.D, FruinLevelOfService.of(FruinLevelOfService.Facility.QUEUING, 2.5));
+		Assert.assertEquals(FruinLevelOfService.A, FruinLevelOfService.of(FruinLevelOfService.Facility.QUEUING, 0.));
+		Assert.assertEquals(FruinLevelOfService.Facility.QUEUING, FruinLevelOfService.Facility.of("Fussweg_Gleiszugang"));
+	}
+
+	private static List<String[]> read(String file) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		try (BufferedReader reader = IOUtils.getBufferedReader(file)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				rows.add(line.split(";"));
+			}
+		}
+		return rows;
+	}
+}
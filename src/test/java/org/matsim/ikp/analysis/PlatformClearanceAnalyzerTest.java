@@ -0,0 +1,100 @@
+package org.matsim.ikp.analysis;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.ikp.prepare.CreatePopulationFromTimetable;
+import org.matsim.ikp.prepare.PersonType;
+import org.matsim.ikp.simpleLineExample.prepare.CreateNetwork;
+import org.matsim.ikp.simpleLineExample.prepare.CreatePopulation;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * @author: davidwedekind
+ */
+public class PlatformClearanceAnalyzerTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public final void clearanceEndsWhenTheLastPassengerLeavesThePlatform() throws IOException {
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		addPerson(population, "disembark_4711_0", PersonType.ZA, "4711");
+		addPerson(population, "transfer_4711_0", PersonType.UM, "4711");
+		addPerson(population, "enter_4711_0", PersonType.QE, "4711");
+		PlatformClearanceAnalyzer analyzer = new PlatformClearanceAnalyzer(CreateNetwork.createSimpleStationNetwork(), population);
+
+		walk(analyzer, "disembark_4711_0", 100., "l_tr_1_1_pf_2", "l_pf_2_pf_1", "l_pf_1_ex_1_1", "l_ex_1_1_ex_1_2", "l_ex_1_2_ex_1_3");
+		walk(analyzer, "transfer_4711_0", 130., "l_tr_1_2_pf_3", "l_pf_3_tr_2_3");
+		// boarding passengers do not count
+		walk(analyzer, "enter_4711_0", 0., "l_ex_1_3_ex_1_2", "l_ex_1_2_ex_1_1", "l_ex_1_1_pf_1", "l_pf_1_pf_2", "l_pf_2_pf_3", "l_pf_3_pf_4", "l_pf_4_pf_5", "l_pf_5_pf_6");
+
+		// disembarking leaves l_pf_1_ex_1_1 at 100 + 3 * 10, transferring arrives on the platform at 130 + 2 * 10
+		Assert.assertEquals(50., analyzer.getClearanceTime("4711"), 0.);
+
+		Path csv = Path.of(utils.getOutputDirectory()).resolve(PlatformClearanceAnalyzer.FILE_NAME);
+		analyzer.writeCsv(csv);
+		List<String> lines = Files.readAllLines(csv);
+		Assert.assertEquals(2, lines.size());
+		Assert.assertEquals("4711;2;2;0;100.0;150.0;50.0;true", lines.get(1));
+
+		analyzer.reset(1);
+		Assert.assertTrue(Double.isNaN(analyzer.getClearanceTime("4711")));
+	}
+
+	@Test
+	public final void simpleLinePopulationIsTracked() throws IOException {
+		PlatformClearanceAnalyzer analyzer = new PlatformClearanceAnalyzer(CreateNetwork.createSimpleStationNetwork(),
+				CreatePopulation.createSimplePopulation());
+
+		Path csv = Path.of(utils.getOutputDirectory()).resolve(PlatformClearanceAnalyzer.FILE_NAME);
+		analyzer.writeCsv(csv);
+		List<String> lines = Files.readAllLines(csv);
+		Assert.assertEquals(2, lines.size());
+		Assert.assertEquals("4711;160;0;0;;;;false", lines.get(1));
+	}
+
+	private static void addPerson(Population population, String id, PersonType type, String trainId) {
+		PopulationFactory fac = population.getFactory();
+		Person person = fac.createPerson(Id.createPersonId(id));
+		person.getAttributes().putAttribute(CreatePopulationFromTimetable.TRAIN_ID_ATTRIBUTE, trainId);
+		Plan plan = fac.createPlan();
+		plan.addActivity(fac.createActivityFromCoord(type.getOriginActivity(), new Coord(0, 0)));
+		plan.addLeg(fac.createLeg("walk"));
+		plan.addActivity(fac.createActivityFromCoord(type.getDestinationActivity(), new Coord(0, 0)));
+		person.addPlan(plan);
+		population.addPerson(person);
+	}
+
+	// every link takes 10 s
+	private static void walk(PlatformClearanceAnalyzer analyzer, String personId, double start, String... links) {
+		Id<Person> person = Id.createPersonId(personId);
+		Id<Vehicle> vehicle = Id.createVehicleId(personId);
+		analyzer.handleEvent(new ActivityEndEvent(start, person, Id.createLinkId(links[0]), null, "origin"));
+		analyzer.handleEvent(new VehicleEntersTrafficEvent(start, person, Id.createLinkId(links[0]), vehicle, "walk", 1.));
+		double time = start;
+		for (int i = 0; i < links.length - 1; i++) {
+			time += 10.;
+			analyzer.handleEvent(new LinkLeaveEvent(time, vehicle, Id.createLinkId(links[i])));
+		}
+		analyzer.handleEvent(new PersonArrivalEvent(time + 10., person, Id.createLinkId(links[links.length - 1]), "walk"));
+	}
+}
@@ -0,0 +1,48 @@
+package org.matsim.ikp.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControlerConfigGroup;
+
+import java.util.Set;
+
+/**
+ * @author: davidwedekind
+ */
+public class StationAnalysisModuleTest {
+
+	@Test
+	public final void analysesAreOffByDefault() {
+		Config config = ConfigUtils.createConfig(new StationAnalysisConfigGroup());
+		StationAnalysisModule.prepareConfig(config);
+		StationAnalysisConfigGroup analysis = ConfigUtils.addOrGetModule(config, StationAnalysisConfigGroup.class);
+
+		Assert.assertEquals(StationAnalysisConfigGroup.BinaryEvents.off, analysis.getBinaryEvents());
+		Assert.assertFalse(analysis.isPlatformClearance());
+		Assert.assertFalse(analysis.isLinkOccupancy());
+		Assert.assertFalse(analysis.isCongestionHotspots());
+		Assert.assertEquals(Set.of(ControlerConfigGroup.EventsFileFormat.xml), config.controler().getEventsFileFormats());
+	}
+
+	@Test
+	public final void binaryEventsInsteadOfXmlStopTheXmlEvents() {
+		StationAnalysisConfigGroup analysis = new StationAnalysisConfigGroup();
+		analysis.setBinaryEvents(StationAnalysisConfigGroup.BinaryEvents.insteadOfXml);
+		Config config = ConfigUtils.createConfig(analysis);
+		StationAnalysisModule.prepareConfig(config);
+
+		Assert.assertTrue(config.controler().getEventsFileFormats().isEmpty());
+	}
+
+	@Test
+	public final void binaryEventsAlongsideXmlKeepTheXmlEvents() {
+		StationAnalysisConfigGroup analysis = new StationAnalysisConfigGroup();
+		analysis.setBinaryEvents(StationAnalysisConfigGroup.BinaryEvents.alongsideXml);
+		Config config = ConfigUtils.createConfig(analysis);
+		StationAnalysisModule.prepareConfig(config);
+
+		Assert.assertEquals(Set.of(ControlerConfigGroup.EventsFileFormat.xml), config.controler().getEventsFileFormats());
+	}
+}
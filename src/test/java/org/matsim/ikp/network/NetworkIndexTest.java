@@ -0,0 +1,33 @@
+package org.matsim.ikp.network;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.ikp.simpleLineExample.prepare.CreateNetwork;
+
+/**
+ * @author: davidwedekind
+ */
+public class NetworkIndexTest {
+
+	@Test
+	public final void linksAndNodesAreNumberedContiguously() {
+		Network net = CreateNetwork.createSimpleStationNetwork();
+		NetworkIndex index = NetworkIndex.of(net);
+
+		Assert.assertEquals(net.getLinks().size(), index.getNumberOfLinks());
+		Assert.assertEquals(net.getNodes().size(), index.getNumberOfNodes());
+		for (Link link : net.getLinks().values()) {
+			int i = index.getLinkIndex(link.getId());
+			Assert.assertSame(link, index.getLink(i));
+			Assert.assertSame(link.getFromNode(), index.getNode(index.getFromNode(i)));
+			Assert.assertSame(link.getToNode(), index.getNode(index.getToNode(i)));
+		}
+
+		// ids created after the index was built are not part of it
+		Assert.assertEquals(NetworkIndex.NOT_IN_NETWORK, index.getLinkIndex(Id.createLinkId("not_in_network")));
+		Assert.assertEquals(NetworkIndex.NOT_IN_NETWORK, index.getNodeIndex(Id.createNodeId("not_in_network")));
+	}
+}
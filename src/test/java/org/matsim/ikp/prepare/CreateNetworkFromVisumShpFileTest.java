@@ -0,0 +1,404 @@
+package org.matsim.ikp.prepare;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.testcases.MatsimTestUtils;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author: davidwedekind
+ */
+public class CreateNetworkFromVisumShpFileTest {
+
+	private static final Logger log = Logger.getLogger(CreateNetworkFromVisumShpFileTest.class);
+	private static final Set<String> LINK_MODES = Set.of("walk_1_39");
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@After
+	public void resetSettings() {
+		CreateNetworkFromVisumShpFile.STREAMING_INGEST = true;
+		CreateNetworkFromVisumShpFile.NUMBER_OF_THREADS = 1;
+		CreateNetworkFromVisumShpFile.LINK_BATCH_SIZE = 50_000;
+		CreateNetworkFromVisumShpFile.VALIDATE = false;
+	}
+
+	@Test
+	public final void streamingIngestNeedsLessHeapThanMaterializedIngest() throws InterruptedException {
+		Path dir = Path.of(utils.getOutputDirectory());
+		SyntheticVisumShapefiles.write(dir, 300);
+		Path nodes = dir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME);
+		Path links = dir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME);
+
+		// warm up both paths so that class loading and compilation do not end up in the measurement
+		CreateNetworkFromVisumShpFile.STREAMING_INGEST = false;
+		CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES);
+		CreateNetworkFromVisumShpFile.STREAMING_INGEST = true;
+		CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES);
+
+		CreateNetworkFromVisumShpFile.STREAMING_INGEST = false;
+		Measurement materialized = measure(nodes, links);
+		CreateNetworkFromVisumShpFile.STREAMING_INGEST = true;
+		Measurement streaming = measure(nodes, links);
+
+		log.info(String.format("materialized ingest: %d ms, live heap %d MB", materialized.wallTimeMs, materialized.liveHeapBytes >> 20));
+		log.info(String.format("streaming ingest: %d ms, live heap %d MB", streaming.wallTimeMs, streaming.liveHeapBytes >> 20));
+
+		Assert.assertEquals(materialized.network.getNodes().keySet(), streaming.network.getNodes().keySet());
+		Assert.assertEquals(materialized.network.getLinks().keySet(), streaming.network.getLinks().keySet());
+		// the materialized ingest holds all link features in addition to the network; they are several times the size
+		// of the link descriptors the streaming ingest keeps
+		Assert.assertTrue("streaming ingest must need clearly less heap than the materialized ingest",
+				streaming.liveHeapBytes < materialized.liveHeapBytes * 0.8);
+		Assert.assertTrue("streaming ingest must not be much slower than the materialized ingest",
+				streaming.wallTimeMs <= materialized.wallTimeMs * 1.5);
+	}
+
+	@Test
+	public final void parallelLinkConstructionMatchesSequential() throws IOException {
+		Path dir = Path.of(utils.getOutputDirectory());
+		SyntheticVisumShapefiles.write(dir, 60);
+		Path nodes = dir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME);
+		Path links = dir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME);
+		// several batches, each of them split into several fork-join tasks
+		CreateNetworkFromVisumShpFile.LINK_BATCH_SIZE = 5_000;
+
+		CreateNetworkFromVisumShpFile.NUMBER_OF_THREADS = 1;
+		Path sequential = dir.resolve("network_sequential.xml");
+		CreateNetworkFromVisumShpFile.writeNetwork(CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES), sequential);
+
+		CreateNetworkFromVisumShpFile.NUMBER_OF_THREADS = 4;
+		Path parallel = dir.resolve("network_parallel.xml");
+		CreateNetworkFromVisumShpFile.writeNetwork(CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES), parallel);
+
+		Assert.assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+	}
+
+	@Test
+	public final void binaryNetworkCacheRestoresConvertedNetwork() {
+		Path dir = Path.of(utils.getOutputDirectory());
+		SyntheticVisumShapefiles.write(dir, 20);
+		Path nodes = dir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME);
+		Path links = dir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME);
+		VisumNetworkConfigGroup configGroup = new VisumNetworkConfigGroup();
+		Path cacheDir = dir.resolve("cache");
+
+		Network converted = CreateNetworkFromVisumShpFile.createNetworkCached(nodes, links, LINK_MODES, configGroup, cacheDir);
+		Path cacheFile = VisumNetworkCache.getCacheFile(cacheDir, VisumNetworkCache.computeKey(nodes, links, LINK_MODES, configGroup));
+		Assert.assertTrue(Files.exists(cacheFile));
+		Network cached = CreateNetworkFromVisumShpFile.createNetworkCached(nodes, links, LINK_MODES, configGroup, cacheDir);
+
+		assertSameNetwork(converted, cached);
+
+		// any change of the importer settings leads to a different cache file
+		configGroup.setFreespeedFactor(1.2);
+		Assert.assertNotEquals(cacheFile, VisumNetworkCache.getCacheFile(cacheDir, VisumNetworkCache.computeKey(nodes, links, LINK_MODES, configGroup)));
+	}
+
+	@Test
+	public final void cachedNetworkIsOnlyValidatedOnce() {
+		Path dir = Path.of(utils.getOutputDirectory());
+		SyntheticVisumShapefiles.write(dir, 20);
+		Path nodes = dir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME);
+		Path links = dir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME);
+		VisumNetworkConfigGroup configGroup = new VisumNetworkConfigGroup();
+		Path cacheDir = dir.resolve("cache");
+		Path cacheFile = VisumNetworkCache.getCacheFile(cacheDir, VisumNetworkCache.computeKey(nodes, links, LINK_MODES, configGroup));
+		Path validatedFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".validated");
+
+		// validation is opt-in
+		CreateNetworkFromVisumShpFile.createNetworkCached(nodes, links, LINK_MODES, configGroup, cacheDir);
+		Assert.assertTrue(Files.exists(cacheFile));
+		Assert.assertFalse(Files.exists(validatedFile));
+
+		// the cached network is validated on the next read, and then marked as validated
+		CreateNetworkFromVisumShpFile.VALIDATE = true;
+		CreateNetworkFromVisumShpFile.createNetworkCached(nodes, links, LINK_MODES, configGroup, cacheDir);
+		Assert.assertTrue(Files.exists(validatedFile));
+	}
+
+	@Test
+	public final void cacheKeyCoversBuiltInLinkTypeDefaults() {
+		VisumNetworkConfigGroup configGroup = new VisumNetworkConfigGroup();
+		String settings = VisumNetworkCache.describeSettings(LINK_MODES, configGroup);
+
+		double clearanceTime = CreateNetworkFromVisumShpFile.PLATFORM_CLEARANCE_TIME;
+		try {
+			CreateNetworkFromVisumShpFile.PLATFORM_CLEARANCE_TIME = clearanceTime + 30.;
+			Assert.assertNotEquals(settings, VisumNetworkCache.describeSettings(LINK_MODES, configGroup));
+		} finally {
+			CreateNetworkFromVisumShpFile.PLATFORM_CLEARANCE_TIME = clearanceTime;
+		}
+
+		// configuring a link type with its defaults does not change the conversion, so neither does it change the key
+		configGroup.addLinkTypeParams(VisumNetworkConfigGroup.LinkTypeParams.createDefault(CreateNetworkFromVisumShpFile.LinkType.Fussweg.name()));
+		Assert.assertEquals(settings, VisumNetworkCache.describeSettings(LINK_MODES, configGroup));
+	}
+
+	@Test
+	public final void incrementalUpdateEqualsConversionFromScratch() {
+		Path previousDir = Path.of(utils.getOutputDirectory(), "previous");
+		Path currentDir = Path.of(utils.getOutputDirectory(), "current");
+		Path netOutput = Path.of(utils.getOutputDirectory(), "network.xml.gz");
+		// the larger grid adds nodes and links and renumbers (i.e. re-connects) some of the existing links
+		SyntheticVisumShapefiles.write(previousDir, 20);
+		SyntheticVisumShapefiles.write(currentDir, 21);
+		Path nodes = currentDir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME);
+		Path links = currentDir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME);
+
+		CreateNetworkFromVisumShpFile.updateNetwork(previousDir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME),
+				previousDir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME), LINK_MODES, new VisumNetworkConfigGroup(), netOutput);
+		Assert.assertTrue(Files.exists(VisumNetworkState.getStateFile(netOutput)));
+		CreateNetworkFromVisumShpFile.NetworkPatch patch = CreateNetworkFromVisumShpFile.patchNetwork(nodes, links, LINK_MODES,
+				new VisumNetworkConfigGroup(), netOutput);
+
+		Assert.assertEquals(41, patch.addedNodes);
+		assertSameNetwork(CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES), patch.network);
+	}
+
+	@Test
+	public final void incrementalUpdateOnlyTouchesEditedLinks() {
+		Path previousDir = Path.of(utils.getOutputDirectory(), "previous");
+		Path currentDir = Path.of(utils.getOutputDirectory(), "current");
+		Path netOutput = Path.of(utils.getOutputDirectory(), "network.xml.gz");
+		SyntheticVisumShapefiles.write(previousDir, 20);
+		// links 5 and 17 (escalators) become wider, which changes their capacity
+		SyntheticVisumShapefiles.write(currentDir, 20, Set.of(5, 17));
+		Path nodes = currentDir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME);
+		Path links = currentDir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME);
+
+		CreateNetworkFromVisumShpFile.updateNetwork(previousDir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME),
+				previousDir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME), LINK_MODES, new VisumNetworkConfigGroup(), netOutput);
+		CreateNetworkFromVisumShpFile.NetworkPatch patch = CreateNetworkFromVisumShpFile.patchNetwork(nodes, links, LINK_MODES,
+				new VisumNetworkConfigGroup(), netOutput);
+
+		// only the four edited features are converted, and only their links change
+		Assert.assertEquals(4, patch.describedLinks);
+		Assert.assertEquals(Set.of(Id.createLinkId("5_0"), Id.createLinkId("5_1"), Id.createLinkId("17_0"), Id.createLinkId("17_1")),
+				patch.touchedLinks);
+		Assert.assertEquals(4, patch.changedLinks);
+		Assert.assertEquals(0, patch.addedLinks + patch.removedLinks);
+		Assert.assertEquals(0, patch.addedNodes + patch.changedNodes + patch.removedNodes);
+		assertSameNetwork(CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES), patch.network);
+
+		// unchanged shapefiles leave the network untouched
+		patch = CreateNetworkFromVisumShpFile.patchNetwork(nodes, links, LINK_MODES, new VisumNetworkConfigGroup(), netOutput);
+		Assert.assertEquals(0, patch.describedLinks);
+		Assert.assertTrue(patch.touchedLinks.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void unknownLinkTypeInConfigFails() {
+		VisumNetworkConfigGroup configGroup = new VisumNetworkConfigGroup();
+		VisumNetworkConfigGroup.LinkTypeParams params = new VisumNetworkConfigGroup.LinkTypeParams();
+		params.setLinkType("Stufen_aufwarts");
+		params.setSpeed(0.4);
+		configGroup.addLinkTypeParams(params);
+
+		new LinkCapacityTable(configGroup);
+	}
+
+	@Test
+	public final void defaultCapacitiesFollowLinkWidth() {
+		LinkCapacityTable table = new LinkCapacityTable(new VisumNetworkConfigGroup());
+
+		// (width - 0.8 m) * speed * density^2 * 3600 s/h / 28.125 m^2 per car, i.e. 166.4 per m of usable width on footpaths
+		Assert.assertEquals(199.68, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Fussweg, 2.), 1e-9);
+		Assert.assertEquals(366.08, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Fussweg, 3.), 1e-9);
+		Assert.assertEquals(202.752, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Stufen_aufwaerts, 3.), 1e-9);
+		// widths are rounded to 1 cm
+		Assert.assertEquals(199.68, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Fussweg, 2.004), 1e-9);
+		Assert.assertEquals(201.344, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Fussweg, 2.006), 1e-9);
+		// wider than tabulated
+		Assert.assertEquals(6522.88, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Fussweg, 40.), 1e-9);
+		// minimum and maximum capacity
+		Assert.assertEquals(CreateNetworkFromVisumShpFile.minCapacity, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Fussweg, 0.9), 0.);
+		Assert.assertEquals(CreateNetworkFromVisumShpFile.maxCapacity, table.getCapacity(CreateNetworkFromVisumShpFile.LinkType.Fussweg_Gleiszugang, 2.), 0.);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void zeroWidthResolutionFails() {
+		VisumNetworkConfigGroup configGroup = new VisumNetworkConfigGroup();
+		configGroup.setWidthResolution(0.);
+
+		new LinkCapacityTable(configGroup);
+	}
+
+	@Test
+	public final void nodeIdOrderIsTotal() {
+		List<String> ids = new ArrayList<>(List.of("9a", "10", "x", "9", "007", "7", "-1"));
+		ids.sort(CreateNetworkFromVisumShpFile::compareNodeIds);
+		Assert.assertEquals(List.of("-1", "007", "7", "9", "10", "9a", "x"), ids);
+
+		// numeric before non-numeric ids, so there is no cycle as with 9 < 10, "10" < "9a", "9a" < "9"
+		Assert.assertTrue(CreateNetworkFromVisumShpFile.compareNodeIds("9", "10") < 0);
+		Assert.assertTrue(CreateNetworkFromVisumShpFile.compareNodeIds("10", "9a") < 0);
+		Assert.assertTrue(CreateNetworkFromVisumShpFile.compareNodeIds("9", "9a") < 0);
+	}
+
+	private static void assertSameNetwork(Network expected, Network actual) {
+		Assert.assertEquals(expected.getNodes().keySet(), actual.getNodes().keySet());
+		for (Node node : expected.getNodes().values()) {
+			Node other = actual.getNodes().get(node.getId());
+			Assert.assertEquals(node.getCoord(), other.getCoord());
+			Assert.assertEquals(node.getAttributes().getAttribute("longName"), other.getAttributes().getAttribute("longName"));
+		}
+		Assert.assertEquals(expected.getLinks().keySet(), actual.getLinks().keySet());
+		for (Link link : expected.getLinks().values()) {
+			Link other = actual.getLinks().get(link.getId());
+			Assert.assertEquals(link.getFromNode().getId(), other.getFromNode().getId());
+			Assert.assertEquals(link.getToNode().getId(), other.getToNode().getId());
+			Assert.assertEquals(link.getLength(), other.getLength(), 0.);
+			Assert.assertEquals(link.getFreespeed(), other.getFreespeed(), 0.);
+			Assert.assertEquals(link.getCapacity(), other.getCapacity(), 0.);
+			Assert.assertEquals(link.getAllowedModes(), other.getAllowedModes());
+			for (String attribute : List.of("width", "linkType", "osmID", "osmName")) {
+				Assert.assertEquals(link.getAttributes().getAttribute(attribute), other.getAttributes().getAttribute(attribute));
+			}
+		}
+	}
+
+	/**
+	 * The wall time is the best of three undisturbed runs. The heap is measured in a separate run, during which full
+	 * collections are forced every few milliseconds; the largest heap after such a collection is the largest amount of
+	 * memory the ingest retained, independent of when the collector would have run by itself.
+	 */
+	private static Measurement measure(Path nodes, Path links) throws InterruptedException {
+		long wallTimeMs = Long.MAX_VALUE;
+		Network net = null;
+		for (int i = 0; i < 3; i++) {
+			// drop the network of the previous run before collecting
+			net = null;
+			System.gc();
+			long start = System.nanoTime();
+			net = CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES);
+			wallTimeMs = Math.min(wallTimeMs, (System.nanoTime() - start) / 1_000_000);
+		}
+		net = null;
+
+		LiveHeapSampler sampler = new LiveHeapSampler();
+		sampler.start();
+		try {
+			net = CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES);
+		} finally {
+			sampler.stop();
+		}
+		Assert.assertTrue("no forced garbage collection was reported, is -XX:+DisableExplicitGC set?", sampler.samples.get() > 0);
+		return new Measurement(net, wallTimeMs, sampler.maxLiveHeapBytes.get());
+	}
+
+
+	/**
+	 * Forces full garbage collections while it runs and records the maximum heap usage after them, as reported by the
+	 * garbage collection notifications of the JVM.
+	 */
+	private static class LiveHeapSampler implements NotificationListener {
+		private final AtomicLong maxLiveHeapBytes = new AtomicLong();
+		private final AtomicInteger samples = new AtomicInteger();
+		private final Set<String> heapPools = new HashSet<>();
+		private volatile boolean running;
+		private Thread thread;
+
+		LiveHeapSampler() {
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					heapPools.add(pool.getName());
+				}
+			}
+		}
+
+		void start() {
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				((NotificationEmitter) gc).addNotificationListener(this, null, null);
+			}
+			running = true;
+			thread = new Thread(() -> {
+				while (running) {
+					System.gc();
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void stop() throws InterruptedException {
+			running = false;
+			thread.join();
+			// one more sample with the result still referenced, and time for the notifications to be delivered
+			System.gc();
+			Thread.sleep(200);
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				try {
+					((NotificationEmitter) gc).removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				return;
+			}
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+			if (!"System.gc()".equals(info.getGcCause())) {
+				return;
+			}
+			long used = 0;
+			for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+				if (heapPools.contains(pool.getKey())) {
+					used += pool.getValue().getUsed();
+				}
+			}
+			maxLiveHeapBytes.accumulateAndGet(used, Math::max);
+			samples.incrementAndGet();
+		}
+	}
+
+
+	private static class Measurement {
+		private final Network network;
+		private final long wallTimeMs;
+		private final long liveHeapBytes;
+
+		Measurement(Network network, long wallTimeMs, long liveHeapBytes) {
+			this.network = network;
+			this.wallTimeMs = wallTimeMs;
+			this.liveHeapBytes = liveHeapBytes;
+		}
+	}
+}
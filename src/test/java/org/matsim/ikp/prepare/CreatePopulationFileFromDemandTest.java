@@ -0,0 +1,175 @@
+package org.matsim.ikp.prepare;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author: davidwedekind
+ */
+public class CreatePopulationFileFromDemandTest {
+
+	private static final String DEMAND =
+			"trainId;personType;origin;destination;from;to;passengers;comment\r\n" +
+			"4711;ZA;1;3;07:01:00;07:03:00;4;first car\r\n" +
+			"\r\n" +
+			"4711; ZA ;2;3;25260;25380.5;2;\r\n" +
+			"815;QE;3;1;25000;25000;1;\r\n";
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@After
+	public void resetSettings() {
+		CreatePopulationFileFromDemand.NUMBER_OF_THREADS = 1;
+		ParallelPopulationGenerator.PARTITION_SIZE = 256;
+		ParallelPopulationGenerator.PARTITIONS_IN_FLIGHT_PER_THREAD = 4;
+		StreamingPopulationSink.QUEUE_CAPACITY = 10_000;
+	}
+
+	@Test
+	public final void demandRowsAreExpandedIntoPersons() throws IOException {
+		Path csv = Path.of(utils.getOutputDirectory()).resolve("demand.csv");
+		Files.writeString(csv, DEMAND);
+
+		assertPopulation(CreatePopulationFileFromDemand.createPopulation(csv, createNetwork()));
+	}
+
+	@Test
+	public final void compressedDemandFileIsReadLikeThePlainFile() throws IOException {
+		Path csv = Path.of(utils.getOutputDirectory()).resolve("demand.csv.gz");
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(csv))) {
+			out.write(DEMAND.getBytes(StandardCharsets.UTF_8));
+		}
+
+		assertPopulation(CreatePopulationFileFromDemand.createPopulation(csv, createNetwork()));
+	}
+
+	@Test
+	public final void populationDoesNotDependOnNumberOfThreads() throws IOException {
+		Path csv = Path.of(utils.getOutputDirectory()).resolve("demand.csv");
+		StringBuilder demand = new StringBuilder("trainId;personType;origin;destination;from;to;passengers\n");
+		for (int row = 0; row < 5_000; row++) {
+			demand.append(row % 37).append(row % 2 == 0 ? ";ZA;1;3;" : ";UM;2;1;").append(row).append(';').append(row + 300).append(";3\n");
+		}
+		Files.writeString(csv, demand);
+		// many partitions, more than fit into the window of partitions in flight
+		ParallelPopulationGenerator.PARTITION_SIZE = 16;
+		ParallelPopulationGenerator.PARTITIONS_IN_FLIGHT_PER_THREAD = 1;
+
+		CreatePopulationFileFromDemand.NUMBER_OF_THREADS = 1;
+		Population sequential = CreatePopulationFileFromDemand.createPopulation(csv, createNetwork());
+		CreatePopulationFileFromDemand.NUMBER_OF_THREADS = 4;
+		Population parallel = CreatePopulationFileFromDemand.createPopulation(csv, createNetwork());
+
+		Assert.assertEquals(15_000, sequential.getPersons().size());
+		Assert.assertEquals(new ArrayList<>(sequential.getPersons().keySet()), new ArrayList<>(parallel.getPersons().keySet()));
+		for (Person person : sequential.getPersons().values()) {
+			Activity expected = (Activity) person.getSelectedPlan().getPlanElements().get(0);
+			Activity actual = (Activity) parallel.getPersons().get(person.getId()).getSelectedPlan().getPlanElements().get(0);
+			Assert.assertEquals(expected.getEndTime().seconds(), actual.getEndTime().seconds(), 0.);
+		}
+	}
+
+	@Test
+	public final void streamedPopulationEqualsWrittenPopulation() throws IOException {
+		Path dir = Path.of(utils.getOutputDirectory());
+		Path csv = dir.resolve("demand.csv");
+		Files.writeString(csv, DEMAND);
+		// smaller than the population, so that the generating thread has to wait for the writer
+		StreamingPopulationSink.QUEUE_CAPACITY = 2;
+
+		Path written = dir.resolve("plans_written.xml.gz");
+		CreatePopulationFileFromDemand.writePopulation(CreatePopulationFileFromDemand.createPopulation(csv, createNetwork()), written);
+		Path streamed = dir.resolve("plans_streamed.xml.gz");
+		CreatePopulationFileFromDemand.streamPopulation(csv, createNetwork(), streamed);
+
+		Population expected = PopulationUtils.readPopulation(written.toString());
+		Population actual = PopulationUtils.readPopulation(streamed.toString());
+		Assert.assertEquals(new ArrayList<>(expected.getPersons().keySet()), new ArrayList<>(actual.getPersons().keySet()));
+		for (Person person : expected.getPersons().values()) {
+			Activity expectedOrigin = (Activity) person.getSelectedPlan().getPlanElements().get(0);
+			Activity actualOrigin = (Activity) actual.getPersons().get(person.getId()).getSelectedPlan().getPlanElements().get(0);
+			Assert.assertEquals(expectedOrigin.getEndTime().seconds(), actualOrigin.getEndTime().seconds(), 0.);
+			Assert.assertEquals(expectedOrigin.getCoord(), actualOrigin.getCoord());
+		}
+	}
+
+	@Test
+	public final void failedStreamLeavesNoPartialFile() throws IOException {
+		Path dir = Path.of(utils.getOutputDirectory());
+		Path csv = dir.resolve("demand.csv");
+		StringBuilder demand = new StringBuilder("trainId;personType;origin;destination;from;to;passengers\n");
+		for (int row = 0; row < 100; row++) {
+			demand.append("4711;ZA;1;3;").append(row).append(';').append(row + 60).append(";2\n");
+		}
+		demand.append("4711;ZA;1;99;0;60;1\n");
+		Files.writeString(csv, demand);
+		// the persons of the first rows are written before the unknown node is read
+		ParallelPopulationGenerator.PARTITION_SIZE = 8;
+
+		Path streamed = dir.resolve("plans_streamed.xml.gz");
+		try {
+			CreatePopulationFileFromDemand.streamPopulation(csv, createNetwork(), streamed);
+			Assert.fail("The unknown node must be rejected");
+		} catch (IllegalArgumentException e) {
+			Assert.assertFalse(Files.exists(streamed));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void unknownNodeIsRejected() throws IOException {
+		Path csv = Path.of(utils.getOutputDirectory()).resolve("demand.csv");
+		Files.writeString(csv, "trainId;personType;origin;destination;from;to;passengers\n4711;ZA;1;99;0;60;1\n");
+
+		CreatePopulationFileFromDemand.createPopulation(csv, createNetwork());
+	}
+
+	private static void assertPopulation(Population pop) {
+		Assert.assertEquals(7, pop.getPersons().size());
+
+		// 4 passengers spread over 120 s starting at 07:01:00
+		Person first = pop.getPersons().get(Id.createPersonId("disembark_4711_0"));
+		Assert.assertEquals("ZA", first.getAttributes().getAttribute("subpopulation"));
+		Activity origin = (Activity) first.getSelectedPlan().getPlanElements().get(0);
+		Assert.assertEquals("train_disembarking", origin.getType());
+		Assert.assertEquals(25275., origin.getEndTime().seconds(), 1e-9);
+		Assert.assertEquals(new Coord(0, 0), origin.getCoord());
+		Activity destination = (Activity) first.getSelectedPlan().getPlanElements().get(2);
+		Assert.assertEquals("station_exit", destination.getType());
+		Assert.assertEquals(new Coord(20, 0), destination.getCoord());
+
+		// person numbers continue across rows of the same train
+		Person last = pop.getPersons().get(Id.createPersonId("disembark_4711_5"));
+		Activity lastOrigin = (Activity) last.getSelectedPlan().getPlanElements().get(0);
+		Assert.assertEquals(25260. + 120.5 * 0.75, lastOrigin.getEndTime().seconds(), 1e-9);
+
+		Person entering = pop.getPersons().get(Id.createPersonId("enter_815_0"));
+		Assert.assertEquals("station_entrance", ((Activity) entering.getSelectedPlan().getPlanElements().get(0)).getType());
+	}
+
+	private static Network createNetwork() {
+		Network net = NetworkUtils.createNetwork();
+		for (int i = 1; i <= 3; i++) {
+			net.addNode(net.getFactory().createNode(Id.createNodeId(i), new Coord(10 * (i - 1), 0)));
+		}
+		return net;
+	}
+}
@@ -0,0 +1,124 @@
+package org.matsim.ikp.prepare;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.ikp.simpleLineExample.prepare.CreateNetwork;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * @author: davidwedekind
+ */
+public class CreatePopulationFromTimetableTest {
+
+	private static final String TIMETABLE =
+			"trainId;track;arrival;departure;car;alighting;boarding;transferring\n" +
+			"4711;1;07:01:00;07:03:00;1;20;5;2\n" +
+			"4711;1;07:01:00;07:03:00;2;10;5;0\n" +
+			"815;2;07:10:00;07:12:00;1;3;0;1\n";
+
+	// door nodes of the simple station network: tr_1_1 and tr_1_2 are in car 1, tr_1_3 and tr_1_4 in car 2 of train 4711
+	private static final Set<Coord> FIRST_CAR_DOORS = Set.of(new Coord(110, 160), new Coord(110, 140));
+	private static final Set<Coord> TRACK_2_DOORS = Set.of(new Coord(90, 100), new Coord(90, 120), new Coord(90, 140), new Coord(90, 160));
+	private static final Set<Coord> EXITS = Set.of(new Coord(200, 260), new Coord(0, 260), new Coord(200, 0), new Coord(0, 0));
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@After
+	public void resetSettings() {
+		CreatePopulationFromTimetable.NUMBER_OF_THREADS = 1;
+		ParallelPopulationGenerator.PARTITION_SIZE = 256;
+		ParallelPopulationGenerator.PARTITIONS_IN_FLIGHT_PER_THREAD = 4;
+	}
+
+	@Test
+	public final void carsAreExpandedIntoAgentsAtTheirDoors() throws IOException {
+		Path timetable = Path.of(utils.getOutputDirectory()).resolve("timetable.csv");
+		Files.writeString(timetable, TIMETABLE);
+
+		Population pop = CreatePopulationFromTimetable.createPopulation(timetable, CreateNetwork.createSimpleStationNetwork());
+		Assert.assertEquals(46, pop.getPersons().size());
+
+		int firstCarDisembarking = 0;
+		for (Person person : pop.getPersons().values()) {
+			Activity origin = (Activity) person.getSelectedPlan().getPlanElements().get(0);
+			Activity destination = (Activity) person.getSelectedPlan().getPlanElements().get(2);
+			String id = person.getId().toString();
+			Assert.assertEquals(id.split("_")[1], person.getAttributes().getAttribute(CreatePopulationFromTimetable.TRAIN_ID_ATTRIBUTE));
+
+			if (id.startsWith("disembark_4711_")) {
+				Assert.assertTrue(EXITS.contains(destination.getCoord()));
+				Assert.assertTrue(origin.getEndTime().seconds() >= 25260. && origin.getEndTime().seconds() < 25320.);
+				if (FIRST_CAR_DOORS.contains(origin.getCoord())) {
+					firstCarDisembarking++;
+				}
+			} else if (id.startsWith("enter_4711_")) {
+				Assert.assertEquals("station_entrance", origin.getType());
+				Assert.assertTrue(EXITS.contains(origin.getCoord()));
+				Assert.assertTrue(origin.getEndTime().seconds() >= 25380. - 600. && origin.getEndTime().seconds() < 25380. - 60.);
+			} else if (id.startsWith("transfer_4711_")) {
+				Assert.assertTrue(FIRST_CAR_DOORS.contains(origin.getCoord()));
+				Assert.assertTrue(TRACK_2_DOORS.contains(destination.getCoord()));
+			}
+		}
+		Assert.assertEquals(20, firstCarDisembarking);
+		// train 815 has a single car, so all doors of track 2 serve it
+		Assert.assertNotNull(pop.getPersons().get(Id.createPersonId("disembark_815_2")));
+	}
+
+	@Test
+	public final void populationDoesNotDependOnNumberOfThreads() throws IOException {
+		Path timetable = Path.of(utils.getOutputDirectory()).resolve("timetable.csv");
+		StringBuilder rows = new StringBuilder("trainId;track;arrival;departure;car;alighting;boarding;transferring\n");
+		for (int train = 0; train < 500; train++) {
+			for (int car = 1; car <= 6; car++) {
+				rows.append(train).append(';').append(1 + train % 2).append(';').append(train * 60).append(';').append(train * 60 + 120)
+						.append(';').append(car).append(";10;5;2\n");
+			}
+		}
+		Files.writeString(timetable, rows);
+		// many partitions, more than fit into the window of partitions in flight
+		ParallelPopulationGenerator.PARTITION_SIZE = 16;
+		ParallelPopulationGenerator.PARTITIONS_IN_FLIGHT_PER_THREAD = 1;
+		Network net = CreateNetwork.createSimpleStationNetwork();
+
+		CreatePopulationFromTimetable.NUMBER_OF_THREADS = 1;
+		Population sequential = CreatePopulationFromTimetable.createPopulation(timetable, net);
+		CreatePopulationFromTimetable.NUMBER_OF_THREADS = 4;
+		Population parallel = CreatePopulationFromTimetable.createPopulation(timetable, net);
+
+		Assert.assertEquals(500 * 6 * 17, sequential.getPersons().size());
+		Assert.assertEquals(new ArrayList<>(sequential.getPersons().keySet()), new ArrayList<>(parallel.getPersons().keySet()));
+		for (Person person : sequential.getPersons().values()) {
+			Activity expected = (Activity) person.getSelectedPlan().getPlanElements().get(0);
+			Activity actual = (Activity) parallel.getPersons().get(person.getId()).getSelectedPlan().getPlanElements().get(0);
+			Assert.assertEquals(expected.getCoord(), actual.getCoord());
+			Assert.assertEquals(expected.getEndTime().seconds(), actual.getEndTime().seconds(), 0.);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void duplicateCarNumbersAreRejected() throws IOException {
+		// cars 1, 1, 3: within 1..3, but car 2 is missing
+		Path timetable = Path.of(utils.getOutputDirectory()).resolve("timetable.csv");
+		Files.writeString(timetable, "trainId;track;arrival;departure;car;alighting;boarding;transferring\n" +
+				"4711;1;07:01:00;07:03:00;1;20;5;2\n" +
+				"4711;1;07:01:00;07:03:00;1;10;5;0\n" +
+				"4711;1;07:01:00;07:03:00;3;10;5;0\n");
+
+		TimetableCsvReader.read(timetable, train -> {});
+	}
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+package org.matsim.ikp.prepare;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+
+import java.util.List;
+
+/**
+ * @author: davidwedekind
+ */
+public class PlanTemplatesTest {
+
+	@Test
+	public final void plansShareElementsWithoutTime() {
+		PlanTemplates templates = new PlanTemplates(PopulationUtils.getFactory());
+		Plan first = templates.createPlan("train_disembarking", new Coord(150, 160), 25260., "walk", "station_exit", new Coord(200, 260), Double.NaN);
+		Plan second = templates.createPlan("train_disembarking", new Coord(150, 160), 25260., "walk", "station_exit", new Coord(200, 260), Double.NaN);
+
+		Assert.assertNotSame(first, second);
+		// the origin activities carry a time and stay per plan
+		Assert.assertNotSame(first.getPlanElements().get(0), second.getPlanElements().get(0));
+		Assert.assertEquals(25260., ((Activity) second.getPlanElements().get(0)).getEndTime().seconds(), 0.);
+		Assert.assertSame(first.getPlanElements().get(1), second.getPlanElements().get(1));
+		Assert.assertSame(first.getPlanElements().get(2), second.getPlanElements().get(2));
+		Assert.assertEquals(2, templates.getNumberOfSharedElements());
+	}
+
+	@Test
+	public final void sharedElementsAreBoundedByCoordinates() {
+		PlanTemplates templates = new PlanTemplates(PopulationUtils.getFactory());
+		for (int i = 0; i < 1_000; i++) {
+			templates.createPlan("train_disembarking", new Coord(150, 160), 25260. + i, "walk", "station_exit", new Coord(200, 260), Double.NaN);
+		}
+
+		Assert.assertEquals(2, templates.getNumberOfSharedElements());
+	}
+
+	@Test
+	public final void plansOfATemplateShareAllElements() {
+		PlanTemplates templates = new PlanTemplates(PopulationUtils.getFactory());
+		PlanTemplates.Template template = templates.createTemplate("train_disembarking", new Coord(150, 160), 25260., "walk", "station_exit", new Coord(200, 260), 26000.);
+		Plan first = template.createPlan();
+		Plan second = template.createPlan();
+
+		Assert.assertNotSame(first, second);
+		for (int i = 0; i < 3; i++) {
+			Assert.assertSame(first.getPlanElements().get(i), second.getPlanElements().get(i));
+		}
+		Assert.assertEquals(26000., ((Activity) first.getPlanElements().get(2)).getStartTime().seconds(), 0.);
+		// timed activities of templates are not cached
+		Assert.assertEquals(1, templates.getNumberOfSharedElements());
+	}
+
+	@Test
+	public final void detachedPlanCanBeModifiedWithoutAffectingOthers() {
+		PlanTemplates templates = new PlanTemplates(PopulationUtils.getFactory());
+		PlanTemplates.Template template = templates.createTemplate("train_disembarking", new Coord(150, 160), 25260., "walk", "station_exit", new Coord(200, 260), Double.NaN);
+		Plan first = template.createPlan();
+		Plan second = template.createPlan();
+
+		PlanTemplates.detach(first);
+		((Activity) first.getPlanElements().get(0)).setEndTime(25300.);
+
+		Assert.assertEquals(25300., ((Activity) first.getPlanElements().get(0)).getEndTime().seconds(), 0.);
+		Assert.assertEquals(25260., ((Activity) second.getPlanElements().get(0)).getEndTime().seconds(), 0.);
+		Assert.assertEquals("station_exit", ((Activity) first.getPlanElements().get(2)).getType());
+	}
+
+	@Test
+	public final void modifyingADetachedPersonDoesNotLeakToOthers() {
+		Population pop = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		PlanTemplates templates = new PlanTemplates(pop.getFactory());
+		PlanTemplates.Template template = templates.createTemplate("train_disembarking", new Coord(150, 160), 25260., "walk", "station_exit", new Coord(200, 260), Double.NaN);
+		for (String id : List.of("first", "second")) {
+			Person person = pop.getFactory().createPerson(Id.createPersonId(id));
+			person.addPlan(template.createPlan());
+			pop.addPerson(person);
+		}
+
+		PlanTemplates.detach(pop);
+		// as done by XY2Links when the mobsim is prepared, and by user code
+		Plan first = pop.getPersons().get(Id.createPersonId("first")).getSelectedPlan();
+		((Activity) first.getPlanElements().get(0)).setLinkId(Id.createLinkId("l_tr_1_1"));
+		((Activity) first.getPlanElements().get(0)).setEndTime(25300.);
+		((Leg) first.getPlanElements().get(1)).setMode("car");
+		((Activity) first.getPlanElements().get(2)).setCoord(new Coord(0, 260));
+
+		Plan second = pop.getPersons().get(Id.createPersonId("second")).getSelectedPlan();
+		Assert.assertNull(((Activity) second.getPlanElements().get(0)).getLinkId());
+		Assert.assertEquals(25260., ((Activity) second.getPlanElements().get(0)).getEndTime().seconds(), 0.);
+		Assert.assertEquals("walk", ((Leg) second.getPlanElements().get(1)).getMode());
+		Assert.assertEquals(new Coord(200, 260), ((Activity) second.getPlanElements().get(2)).getCoord());
+		// the plans of later templates are not affected either
+		Assert.assertEquals(new Coord(200, 260), ((Activity) template.createPlan().getPlanElements().get(2)).getCoord());
+	}
+}
@@ -0,0 +1,125 @@
+package org.matsim.ikp.prepare;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.ikp.simpleLineExample.prepare.CreateNetwork;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to generate the population of the simple station from a timetable or a demand file of 'trains' trains with
+ * 8 cars each, i.e. 600 persons per train or 60,000 and 600,000 persons in total, and to write it to a plans file,
+ * either streamed while it is generated or from the population in memory.
+ *
+ * Run with: mvn -Pjmh verify -DskipTests -Djmh.includes=PopulationGenerationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PopulationGenerationBenchmark {
+
+	private static final int CARS = 8;
+	private static final String[] EXITS = {"ex_1_3", "ex_1_5", "ex_2_3", "ex_2_5"};
+
+	@Param({"100", "1000"})
+	private int trains;
+
+	@Param({"1", "4"})
+	private int numberOfThreads;
+
+	private Path dir;
+	private Path timetable;
+	private Path demand;
+	private Network network;
+	private Population population;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory(PopulationGenerationBenchmark.class.getSimpleName());
+		timetable = dir.resolve("timetable.csv");
+		demand = dir.resolve("demand.csv");
+		writeTimetable(timetable, trains);
+		writeDemand(demand, trains);
+		network = CreateNetwork.createSimpleStationNetwork();
+		CreatePopulationFromTimetable.NUMBER_OF_THREADS = numberOfThreads;
+		CreatePopulationFileFromDemand.NUMBER_OF_THREADS = numberOfThreads;
+		population = CreatePopulationFromTimetable.createPopulation(timetable, network);
+	}
+
+	@TearDown
+	public void tearDown() {
+		CreatePopulationFromTimetable.NUMBER_OF_THREADS = 1;
+		CreatePopulationFileFromDemand.NUMBER_OF_THREADS = 1;
+		IOUtils.deleteDirectoryRecursively(dir);
+	}
+
+	@Benchmark
+	public Population createPopulationFromTimetable() {
+		return CreatePopulationFromTimetable.createPopulation(timetable, network);
+	}
+
+	@Benchmark
+	public Population createPopulationFromDemand() {
+		return CreatePopulationFileFromDemand.createPopulation(demand, network);
+	}
+
+	@Benchmark
+	public void streamPopulationFromTimetable() {
+		CreatePopulationFromTimetable.streamPopulation(timetable, network, dir.resolve("plans_streamed.xml.gz"));
+	}
+
+	@Benchmark
+	public void writePopulation() {
+		CreatePopulationFileFromDemand.writePopulation(population, dir.resolve("plans_written.xml.gz"));
+	}
+
+	// every car has 40 alighting, 30 boarding and 5 transferring passengers; trains arrive every minute on alternating tracks
+	public static void writeTimetable(Path path, int trains) throws IOException {
+		StringBuilder rows = new StringBuilder("trainId;track;arrival;departure;car;alighting;boarding;transferring\n");
+		for (int train = 0; train < trains; train++) {
+			int arrival = 18_000 + train * 60;
+			for (int car = 1; car <= CARS; car++) {
+				rows.append(train).append(';').append(1 + train % 2).append(';').append(arrival).append(';').append(arrival + 120)
+						.append(';').append(car).append(";40;30;5\n");
+			}
+		}
+		Files.writeString(path, rows);
+	}
+
+	// the same number of persons as the timetable: per car one row of 45 alighting and one of 30 entering passengers
+	private static void writeDemand(Path path, int trains) throws IOException {
+		StringBuilder rows = new StringBuilder("trainId;personType;origin;destination;from;to;passengers\n");
+		for (int train = 0; train < trains; train++) {
+			int track = 1 + train % 2;
+			int arrival = 18_000 + train * 60;
+			for (int car = 1; car <= CARS; car++) {
+				String door = "tr_" + track + "_" + (1 + (car - 1) % 4);
+				String exit = EXITS[car % EXITS.length];
+				rows.append(train).append(";ZA;").append(door).append(';').append(exit).append(';')
+						.append(arrival).append(';').append(arrival + 60).append(";45\n");
+				rows.append(train).append(";QE;").append(exit).append(';').append(door).append(';')
+						.append(arrival - 480).append(';').append(arrival + 60).append(";30\n");
+			}
+		}
+		Files.writeString(path, rows);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(PopulationGenerationBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
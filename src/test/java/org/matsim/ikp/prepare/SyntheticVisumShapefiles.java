@@ -0,0 +1,135 @@
+package org.matsim.ikp.prepare;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.core.utils.gis.PointFeatureFactory;
+import org.matsim.core.utils.gis.PolylineFeatureFactory;
+import org.matsim.core.utils.gis.ShapeFileWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes a synthetic station network as a pair of Visum-like node and link shapefiles.
+ *
+ * The network is a square grid of nodes with a pair of directional links (sharing the same Visum NO)
+ * between all horizontal and vertical neighbours. Link types cycle through the types the importer knows.
+ */
+class SyntheticVisumShapefiles {
+
+    static final String NODE_FILE_NAME = "nodes.shp";
+    static final String LINK_FILE_NAME = "links.shp";
+
+    private static final String[] LINK_TYPES = {
+            "Fussweg", "Fussweg_Zentrallinie", "Fussweg_Gleiszugang", "Stufen_aufwaerts", "Stufen_abwaerts",
+            "Fahrtreppe_aufwaerts", "Fahrtreppe_abwaerts", "Fussweg_Verbinder_Treppe", "Fussweg_Verbinder_Fuss",
+            "gesperrt", "Fussweg_Verbinder_Aufzug"
+    };
+    private static final double SPACING = 5.;
+
+    private SyntheticVisumShapefiles() {
+    }
+
+    /**
+     * @return the number of links written (i.e. 2 * 2 * gridSize * (gridSize - 1))
+     */
+    static int write(Path dir, int gridSize) {
+        return write(dir, gridSize, Set.of());
+    }
+
+    /**
+     * Like write, but both directions of the links with a NO in widenedLinks are 1 m wider.
+     */
+    static int write(Path dir, int gridSize, Set<Integer> widenedLinks) {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CoordinateReferenceSystem crs = MGC.getCRS(CreateNetworkFromVisumShpFile.COORD_REF_SYS.toUpperCase());
+        writeNodes(dir.resolve(NODE_FILE_NAME), gridSize, crs);
+        return writeLinks(dir.resolve(LINK_FILE_NAME), gridSize, widenedLinks, crs);
+    }
+
+    private static void writeNodes(Path file, int gridSize, CoordinateReferenceSystem crs) {
+        PointFeatureFactory factory = new PointFeatureFactory.Builder()
+                .setCrs(crs)
+                .setName("nodes")
+                .addAttribute(CreateNetworkFromVisumShpFile.NODE_ID_ATTR, Integer.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.NODE_LN_ATTR, String.class)
+                .create();
+
+        List<SimpleFeature> features = new ArrayList<>(gridSize * gridSize);
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                int no = nodeNo(gridSize, row, col);
+                features.add(factory.createPoint(new Coord(col * SPACING, row * SPACING),
+                        new Object[]{no, "node_" + no}, String.valueOf(no)));
+            }
+        }
+        ShapeFileWriter.writeGeometries(features, file.toString());
+    }
+
+    private static int writeLinks(Path file, int gridSize, Set<Integer> widenedLinks, CoordinateReferenceSystem crs) {
+        PolylineFeatureFactory factory = new PolylineFeatureFactory.Builder()
+                .setCrs(crs)
+                .setName("links")
+                .addAttribute(CreateNetworkFromVisumShpFile.LINK_ID_ATTR, Integer.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.FROM_NODE_ID_ATTR, Integer.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.TO_NODE_ID_ATTR, Integer.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.LENGTH_ATTR_1ST_CHOICE, Double.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.LENGTH_ATTR_2ND_CHOICE, Double.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.WIDTH_ATTR, Double.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.MAX_SPEED_ATTR, Double.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.LINK_TYPE_ATTR, String.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.OSM_ID_ATTR, String.class)
+                .addAttribute(CreateNetworkFromVisumShpFile.OSM_NAME_ATTR, String.class)
+                .create();
+
+        List<SimpleFeature> features = new ArrayList<>();
+        int no = 0;
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                if (col + 1 < gridSize) {
+                    no++;
+                    addLinkPair(factory, features, no, gridSize, widenedLinks.contains(no), row, col, row, col + 1);
+                }
+                if (row + 1 < gridSize) {
+                    no++;
+                    addLinkPair(factory, features, no, gridSize, widenedLinks.contains(no), row, col, row + 1, col);
+                }
+            }
+        }
+        ShapeFileWriter.writeGeometries(features, file.toString());
+        return features.size();
+    }
+
+    private static void addLinkPair(PolylineFeatureFactory factory, List<SimpleFeature> features, int no, int gridSize, boolean widened,
+                                    int fromRow, int fromCol, int toRow, int toCol) {
+        int from = nodeNo(gridSize, fromRow, fromCol);
+        int to = nodeNo(gridSize, toRow, toCol);
+        String linkType = LINK_TYPES[no % LINK_TYPES.length];
+        double width = 2. + (no % 7) * 0.5 + (widened ? 1. : 0.);
+        Coordinate fromCoord = new Coordinate(fromCol * SPACING, fromRow * SPACING);
+        Coordinate toCoord = new Coordinate(toCol * SPACING, toRow * SPACING);
+
+        features.add(factory.createPolyline(new Coordinate[]{fromCoord, toCoord},
+                new Object[]{no, from, to, SPACING, SPACING / 1000., width, 5., linkType, "osm_" + no, "Bahnsteig " + (no % 12)},
+                no + "_a"));
+        features.add(factory.createPolyline(new Coordinate[]{toCoord, fromCoord},
+                new Object[]{no, to, from, SPACING, SPACING / 1000., width, 5., linkType, "osm_" + no, "Bahnsteig " + (no % 12)},
+                no + "_b"));
+    }
+
+    private static int nodeNo(int gridSize, int row, int col) {
+        return row * gridSize + col + 1;
+    }
+}
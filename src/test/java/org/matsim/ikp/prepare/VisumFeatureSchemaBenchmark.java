@@ -0,0 +1,117 @@
+package org.matsim.ikp.prepare;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.core.utils.gis.PolylineFeatureFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.matsim.ikp.prepare.CreateNetworkFromVisumShpFile.*;
+
+/**
+ * Per-feature cost of reading the attributes of a Visum link feature,
+ * by name with a String round trip (as the importer used to do) and by precompiled attribute index.
+ *
+ * Run with: mvn -Pjmh verify -DskipTests -Djmh.includes=VisumFeatureSchemaBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisumFeatureSchemaBenchmark {
+
+	private SimpleFeature feature;
+	private int id;
+	private int fromNode;
+	private int toNode;
+	private int length;
+	private int width;
+	private int maxSpeed;
+	private int linkType;
+	private int osmId;
+	private int osmName;
+
+	@Setup
+	public void setup() {
+		PolylineFeatureFactory factory = new PolylineFeatureFactory.Builder()
+				.setCrs(MGC.getCRS(COORD_REF_SYS.toUpperCase()))
+				.setName("links")
+				.addAttribute(LINK_ID_ATTR, Integer.class)
+				.addAttribute(FROM_NODE_ID_ATTR, Integer.class)
+				.addAttribute(TO_NODE_ID_ATTR, Integer.class)
+				.addAttribute(LENGTH_ATTR_1ST_CHOICE, Double.class)
+				.addAttribute(LENGTH_ATTR_2ND_CHOICE, Double.class)
+				.addAttribute(WIDTH_ATTR, Double.class)
+				.addAttribute(MAX_SPEED_ATTR, Double.class)
+				.addAttribute(LINK_TYPE_ATTR, String.class)
+				.addAttribute(OSM_ID_ATTR, String.class)
+				.addAttribute(OSM_NAME_ATTR, String.class)
+				.create();
+		feature = factory.createPolyline(new Coordinate[]{new Coordinate(0, 0), new Coordinate(5, 0)},
+				new Object[]{4711, 1, 2, 5., 0.005, 3.5, 5., "Fussweg", "osm_4711", "Bahnsteig 1"}, "4711");
+
+		VisumFeatureSchema schema = new VisumFeatureSchema(feature.getFeatureType());
+		id = schema.resolveRequired(LINK_ID_ATTR);
+		fromNode = schema.resolveRequired(FROM_NODE_ID_ATTR);
+		toNode = schema.resolveRequired(TO_NODE_ID_ATTR);
+		length = schema.resolveOptional(LENGTH_ATTR_1ST_CHOICE);
+		width = schema.resolveOptional(WIDTH_ATTR);
+		maxSpeed = schema.resolveRequired(MAX_SPEED_ATTR);
+		linkType = schema.resolveRequired(LINK_TYPE_ATTR);
+		osmId = schema.resolveOptional(OSM_ID_ATTR);
+		osmName = schema.resolveOptional(OSM_NAME_ATTR);
+	}
+
+	@Benchmark
+	public void byName(Blackhole bh) {
+		bh.consume(feature.getAttribute(LINK_TYPE_ATTR).toString());
+		bh.consume(feature.getAttribute(LINK_ID_ATTR).toString());
+		bh.consume(feature.getAttribute(FROM_NODE_ID_ATTR).toString());
+		bh.consume(feature.getAttribute(TO_NODE_ID_ATTR).toString());
+		if (feature.getAttribute(LENGTH_ATTR_1ST_CHOICE) != null) {
+			bh.consume(Double.parseDouble(feature.getAttribute(LENGTH_ATTR_1ST_CHOICE).toString()));
+		}
+		bh.consume(Double.parseDouble(feature.getAttribute(MAX_SPEED_ATTR).toString()));
+		if (feature.getAttribute(WIDTH_ATTR) != null) {
+			bh.consume(Double.parseDouble(feature.getAttribute(WIDTH_ATTR).toString()));
+		}
+		if (feature.getAttribute(LINK_TYPE_ATTR) != null) {
+			bh.consume(feature.getAttribute(LINK_TYPE_ATTR).toString());
+		}
+		if (feature.getAttribute(OSM_ID_ATTR) != null) {
+			bh.consume(feature.getAttribute(OSM_ID_ATTR).toString());
+		}
+		if (feature.getAttribute(OSM_NAME_ATTR) != null) {
+			bh.consume(feature.getAttribute(OSM_NAME_ATTR).toString());
+		}
+	}
+
+	@Benchmark
+	public void byIndex(Blackhole bh) {
+		bh.consume(feature.getAttribute(linkType).toString());
+		bh.consume(feature.getAttribute(id).toString());
+		bh.consume(feature.getAttribute(fromNode).toString());
+		bh.consume(feature.getAttribute(toNode).toString());
+		bh.consume(VisumFeatureSchema.readDouble(feature, length, Double.NaN));
+		bh.consume(VisumFeatureSchema.readDouble(feature, maxSpeed, Double.NaN));
+		bh.consume(VisumFeatureSchema.readDouble(feature, width, stdWidth));
+		bh.consume(VisumFeatureSchema.readString(feature, osmId, ""));
+		bh.consume(VisumFeatureSchema.readString(feature, osmName, ""));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(VisumFeatureSchemaBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
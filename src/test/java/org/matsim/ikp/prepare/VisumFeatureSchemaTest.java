@@ -0,0 +1,41 @@
+package org.matsim.ikp.prepare;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.core.utils.gis.PolylineFeatureFactory;
+import org.opengis.feature.simple.SimpleFeature;
+
+import static org.matsim.ikp.prepare.CreateNetworkFromVisumShpFile.*;
+
+/**
+ * @author: davidwedekind
+ */
+public class VisumFeatureSchemaTest {
+
+	@Test
+	public final void nullRequiredValueNamesFeatureAndAttribute() {
+		PolylineFeatureFactory factory = new PolylineFeatureFactory.Builder()
+				.setCrs(MGC.getCRS(COORD_REF_SYS.toUpperCase()))
+				.setName("links")
+				.addAttribute(LINK_ID_ATTR, Integer.class)
+				.addAttribute(MAX_SPEED_ATTR, Double.class)
+				.addAttribute(WIDTH_ATTR, Double.class)
+				.create();
+		SimpleFeature feature = factory.createPolyline(new Coordinate[]{new Coordinate(0, 0), new Coordinate(5, 0)},
+				new Object[]{4711, null, null}, "4711");
+		VisumFeatureSchema schema = new VisumFeatureSchema(feature.getFeatureType());
+
+		// optional values fall back to their default
+		Assert.assertEquals(stdWidth, VisumFeatureSchema.readDouble(feature, schema.resolveOptional(WIDTH_ATTR), stdWidth), 0.);
+
+		try {
+			VisumFeatureSchema.readRequiredDouble(feature, schema.resolveRequired(MAX_SPEED_ATTR), MAX_SPEED_ATTR);
+			Assert.fail("A null speed must not be read as NaN");
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("4711"));
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(MAX_SPEED_ATTR));
+		}
+	}
+}
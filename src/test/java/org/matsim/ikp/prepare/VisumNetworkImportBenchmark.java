@@ -0,0 +1,71 @@
+package org.matsim.ikp.prepare;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to import a synthetic Visum network of gridSize^2 nodes (and about 4 * gridSize^2 links) from its shapefiles,
+ * and to write the imported network as MATSim xml.
+ *
+ * Run with: mvn -Pjmh verify -DskipTests -Djmh.includes=VisumNetworkImportBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VisumNetworkImportBenchmark {
+
+	private static final Set<String> LINK_MODES = Set.of("walk_1_39");
+
+	@Param({"20", "100"})
+	private int gridSize;
+
+	private Path dir;
+	private Path nodes;
+	private Path links;
+	private Network network;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory(VisumNetworkImportBenchmark.class.getSimpleName());
+		SyntheticVisumShapefiles.write(dir, gridSize);
+		nodes = dir.resolve(SyntheticVisumShapefiles.NODE_FILE_NAME);
+		links = dir.resolve(SyntheticVisumShapefiles.LINK_FILE_NAME);
+		network = CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES);
+	}
+
+	@TearDown
+	public void tearDown() {
+		IOUtils.deleteDirectoryRecursively(dir);
+	}
+
+	@Benchmark
+	public Network createNetwork() {
+		return CreateNetworkFromVisumShpFile.createNetwork(nodes, links, LINK_MODES);
+	}
+
+	@Benchmark
+	public void writeNetwork() {
+		CreateNetworkFromVisumShpFile.writeNetwork(network, dir.resolve("network.xml.gz"));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(VisumNetworkImportBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,80 @@
+package org.matsim.ikp.prepare;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.ikp.simpleLineExample.prepare.CreateNetwork;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author: davidwedekind
+ */
+public class VisumNetworkValidatorTest {
+
+	private static final String MODE = "walk_1_39";
+
+	@Test
+	public final void reportListsTopologyProblems() {
+		Network net = NetworkUtils.createNetwork();
+		// a <-> b, and b2 5 cm next to b without any link
+		addNode(net, "a", 0., 0.);
+		addNode(net, "b", 10., 0.);
+		addNode(net, "b2", 10., 0.05);
+		// c -> d -> f -> c, the largest component
+		addNode(net, "c", 100., 0.);
+		addNode(net, "d", 110., 0.);
+		addNode(net, "f", 105., 10.);
+		// e can be entered from d, but not left
+		addNode(net, "e", 200., 0.);
+		addLink(net, "a", "b", MODE);
+		addLink(net, "b", "a", MODE);
+		addLink(net, "c", "d", MODE);
+		addLink(net, "d", "f", MODE);
+		addLink(net, "f", "c", MODE);
+		addLink(net, "d", "e", MODE);
+		// links of other modes do not connect the walking network
+		addLink(net, "b", "c", "car");
+
+		VisumNetworkValidator.Report report = VisumNetworkValidator.validate(net, Set.of(MODE));
+
+		Assert.assertFalse(report.isValid());
+		Assert.assertEquals(1, report.getNearDuplicateNodes().size());
+		Assert.assertEquals(Set.of(Id.createNodeId("b"), Id.createNodeId("b2")), new HashSet<>(report.getNearDuplicateNodes().get(0)));
+		Assert.assertEquals(List.of(Id.createNodeId("e")), report.getDanglingNodes(MODE));
+		// {a, b}, {c, d, f} and {e}; b2 has no walking link and is not part of the walking network
+		Assert.assertEquals(3, report.getComponentCount(MODE));
+		Assert.assertEquals(Set.of(Id.createNodeId("a"), Id.createNodeId("b"), Id.createNodeId("e")),
+				new HashSet<>(report.getNodesOutsideLargestComponent(MODE)));
+	}
+
+	@Test
+	public final void simpleStationIsValid() {
+		VisumNetworkValidator.Report report = VisumNetworkValidator.validate(
+				CreateNetwork.createSimpleStationNetwork(), Set.of("car"));
+
+		Assert.assertTrue(report.isValid());
+		Assert.assertEquals(1, report.getComponentCount("car"));
+	}
+
+	private static void addNode(Network net, String id, double x, double y) {
+		net.addNode(net.getFactory().createNode(Id.createNodeId(id), new Coord(x, y)));
+	}
+
+	private static void addLink(Network net, String from, String to, String mode) {
+		NetworkFactory fac = net.getFactory();
+		Node fromNode = net.getNodes().get(Id.createNodeId(from));
+		Node toNode = net.getNodes().get(Id.createNodeId(to));
+		Link link = fac.createLink(Id.createLinkId(from + "_" + to), fromNode, toNode);
+		link.setAllowedModes(Set.of(mode));
+		net.addLink(link);
+	}
+}
@@ -0,0 +1,37 @@
+package org.matsim.ikp.simpleLineExample;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * @author: davidwedekind
+ */
+public class RunMatsimBatchTest {
+
+	private static final Path OUTPUT_ROOT = Path.of("output", "batch");
+
+	@Test
+	public final void variantsAreNamedAfterTheirDirectory() {
+		RunMatsimBatch.Variant a = new RunMatsimBatch.Variant(Path.of("scenarios", "variantA", "config.xml"), OUTPUT_ROOT);
+		RunMatsimBatch.Variant b = new RunMatsimBatch.Variant(Path.of("scenarios", "variantB", "config.xml.gz"), OUTPUT_ROOT);
+		RunMatsimBatch.Variant c = new RunMatsimBatch.Variant(Path.of("scenarios", "variantB", "config_peak.xml"), OUTPUT_ROOT);
+
+		Assert.assertEquals(OUTPUT_ROOT.resolve("variantA"), a.getOutputDirectory());
+		Assert.assertEquals(OUTPUT_ROOT.resolve("variantB"), b.getOutputDirectory());
+		Assert.assertEquals(OUTPUT_ROOT.resolve("variantB_config_peak"), c.getOutputDirectory());
+		RunMatsimBatch.checkOutputDirectories(List.of(a, b, c));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void variantsSharingAnOutputDirectoryAreRejectedBeforeAnyRun() {
+		List<RunMatsimBatch.Variant> variants = List.of(
+				new RunMatsimBatch.Variant(Path.of("scenarios", "variantA", "config.xml"), OUTPUT_ROOT),
+				new RunMatsimBatch.Variant(Path.of("scenarios", "variantA", "config.xml.gz"), OUTPUT_ROOT));
+
+		// would run the first variant without network if the check came later
+		RunMatsimBatch.run(variants, null, List.of());
+	}
+}
@@ -0,0 +1,46 @@
+package org.matsim.ikp.simpleLineExample.prepare;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.nio.file.Path;
+
+/**
+ * @author: davidwedekind
+ */
+public class CreateConfigTest {
+	private static final Logger log = Logger.getLogger(CreateConfigTest.class);
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * The parallel profile does not promise identical events (see CreateConfig.applyParallelProfile), so the results
+	 * of both profiles are compared statistically after some iterations with replanning.
+	 */
+	@Test
+	public final void parallelProfileGivesSameStatistics() {
+		int trains = 20;
+		int lastIteration = 3;
+		ParallelProfileRuns.Statistics sequential = ParallelProfileRuns.run(ParallelProfileRuns.createScenario(
+				CreateConfig.Profile.DEFAULT, Path.of(utils.getOutputDirectory(), "default"), trains, lastIteration));
+		ParallelProfileRuns.Statistics parallel = ParallelProfileRuns.run(ParallelProfileRuns.createScenario(
+				CreateConfig.Profile.PARALLEL, Path.of(utils.getOutputDirectory(), "parallel"), trains, lastIteration));
+		log.info("Default profile: " + sequential);
+		log.info("Parallel profile: " + parallel);
+
+		Assert.assertEquals(12_000, sequential.persons);
+		Assert.assertEquals(sequential.persons, parallel.persons);
+		Assert.assertEquals(sequential.modeShares.keySet(), parallel.modeShares.keySet());
+		for (String mode : sequential.modeShares.keySet()) {
+			Assert.assertEquals(sequential.modeShares.get(mode), parallel.modeShares.get(mode), 0.01);
+		}
+		// arrivals and stuck agents within 0.5 % of the population, travel times and scores within 2 %
+		Assert.assertEquals(sequential.arrivals, parallel.arrivals, 0.005 * sequential.persons);
+		Assert.assertEquals(sequential.stuck, parallel.stuck, 0.005 * sequential.persons);
+		Assert.assertEquals(sequential.getAverageTravelTime(), parallel.getAverageTravelTime(), 0.02 * sequential.getAverageTravelTime());
+		Assert.assertEquals(sequential.averageScore, parallel.averageScore, 0.02 * Math.abs(sequential.averageScore));
+	}
+}
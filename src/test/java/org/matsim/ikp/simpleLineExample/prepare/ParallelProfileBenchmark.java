@@ -0,0 +1,81 @@
+package org.matsim.ikp.simpleLineExample.prepare;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.utils.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of a run of the simple station with a peak-hour population of 'trains' trains (600 persons each, i.e. 60,000
+ * and 300,000 persons) over LAST_ITERATION + 1 iterations with replanning, with the default and the parallel config profile.
+ *
+ * The statistics of every run (arrivals, stuck agents, travel time, score and mode shares of the last iteration) are
+ * logged, so the results of both profiles can be compared alongside their times; CreateConfigTest checks that they
+ * agree within a tolerance on a smaller population.
+ *
+ * Run with: mvn -Pjmh verify -DskipTests -Djmh.includes=ParallelProfileBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ParallelProfileBenchmark {
+	private static final Logger log = Logger.getLogger(ParallelProfileBenchmark.class);
+
+	private static final int LAST_ITERATION = 4;
+
+	@Param({"100", "500"})
+	private int trains;
+
+	@Param({"DEFAULT", "PARALLEL"})
+	private CreateConfig.Profile profile;
+
+	private Path dir;
+	private Scenario scenario;
+	private ParallelProfileRuns.Statistics statistics;
+
+	@Setup(Level.Trial)
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory(ParallelProfileBenchmark.class.getSimpleName());
+	}
+
+	// replanning changes the plans, so every run starts from a new population
+	@Setup(Level.Invocation)
+	public void createScenario() {
+		scenario = ParallelProfileRuns.createScenario(profile, dir.resolve("output"), trains, LAST_ITERATION);
+	}
+
+	@TearDown(Level.Invocation)
+	public void logStatistics() {
+		log.info(String.format("%d trains, %s profile: %s", trains, profile, statistics));
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteDirectory() {
+		IOUtils.deleteDirectoryRecursively(dir);
+	}
+
+	@Benchmark
+	public ParallelProfileRuns.Statistics run() {
+		statistics = ParallelProfileRuns.run(scenario);
+		return statistics;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(ParallelProfileBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
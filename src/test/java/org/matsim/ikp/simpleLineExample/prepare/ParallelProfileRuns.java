@@ -0,0 +1,189 @@
+package org.matsim.ikp.simpleLineExample.prepare;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.events.handler.PersonArrivalEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.events.handler.PersonStuckEventHandler;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.config.groups.StrategyConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.replanning.strategies.DefaultPlanStrategiesModule;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.ikp.prepare.CreatePopulationFromTimetable;
+import org.matsim.ikp.prepare.PersonType;
+import org.matsim.ikp.prepare.PlanTemplates;
+import org.matsim.ikp.prepare.PopulationGenerationBenchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the simple station with a population of 'trains' trains of 8 cars (600 persons per train, see
+ * PopulationGenerationBenchmark.writeTimetable) over several iterations with replanning, and collects the statistics
+ * of the last iteration that must not depend on the config profile.
+ */
+final class ParallelProfileRuns {
+
+	private ParallelProfileRuns() {
+	}
+
+	static Scenario createScenario(CreateConfig.Profile profile, Path outputDirectory, int trains, int lastIteration) {
+		Config config = CreateConfig.modifyConfig(ConfigUtils.createConfig(), profile);
+		config.controler().setOutputDirectory(outputDirectory.toString());
+		config.controler().setLastIteration(lastIteration);
+		config.controler().setWriteEventsInterval(0);
+		config.controler().setWritePlansInterval(0);
+		config.plans().setInputFile(null);
+		config.network().setInputFile(null);
+		// the simple station network is walked in "car" vehicles, so simulate that mode
+		config.qsim().setMainModes(Collections.singletonList(TransportMode.car));
+
+		for (PersonType type : PersonType.values()) {
+			addActivityParams(config, type.getOriginActivity());
+			addActivityParams(config, type.getDestinationActivity());
+		}
+		addStrategy(config, DefaultPlanStrategiesModule.DefaultSelector.ChangeExpBeta, 0.8);
+		addStrategy(config, DefaultPlanStrategiesModule.DefaultStrategy.ReRoute, 0.2);
+
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		((MutableScenario) scenario).setNetwork(CreateNetwork.createSimpleStationNetwork());
+
+		Path timetable = outputDirectory.resolveSibling(outputDirectory.getFileName() + "_timetable.csv");
+		String legMode = CreatePopulationFromTimetable.LEG_MODE;
+		try {
+			PopulationGenerationBenchmark.writeTimetable(timetable, trains);
+			CreatePopulationFromTimetable.LEG_MODE = TransportMode.car;
+			Population population = CreatePopulationFromTimetable.createPopulation(timetable, scenario.getNetwork());
+			// the mobsim preparation sets the link ids of the activities
+			PlanTemplates.detach(population);
+			for (Person person : population.getPersons().values()) {
+				// all passenger types share the default scoring and replanning
+				person.getAttributes().removeAttribute("subpopulation");
+				scenario.getPopulation().addPerson(person);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			CreatePopulationFromTimetable.LEG_MODE = legMode;
+		}
+		return scenario;
+	}
+
+	static Statistics run(Scenario scenario) {
+		Statistics statistics = new Statistics();
+		Controler controler = new Controler(scenario);
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				addEventHandlerBinding().toInstance(statistics);
+			}
+		});
+
+		long t0 = System.currentTimeMillis();
+		controler.run();
+		statistics.runTime = System.currentTimeMillis() - t0;
+
+		double scores = 0.;
+		int legs = 0;
+		for (Person person : scenario.getPopulation().getPersons().values()) {
+			scores += person.getSelectedPlan().getScore();
+			for (Leg leg : TripStructureUtils.getLegs(person.getSelectedPlan())) {
+				statistics.legsByMode.merge(leg.getMode(), 1, Integer::sum);
+				legs++;
+			}
+		}
+		statistics.persons = scenario.getPopulation().getPersons().size();
+		statistics.averageScore = scores / statistics.persons;
+		for (Map.Entry<String, Integer> mode : statistics.legsByMode.entrySet()) {
+			statistics.modeShares.put(mode.getKey(), mode.getValue() / (double) legs);
+		}
+		return statistics;
+	}
+
+	private static void addActivityParams(Config config, String type) {
+		if (config.planCalcScore().getActivityParams(type) == null) {
+			PlanCalcScoreConfigGroup.ActivityParams params = new PlanCalcScoreConfigGroup.ActivityParams(type);
+			params.setTypicalDuration(3600.);
+			config.planCalcScore().addActivityParams(params);
+		}
+	}
+
+	private static void addStrategy(Config config, String strategy, double weight) {
+		StrategyConfigGroup.StrategySettings settings = new StrategyConfigGroup.StrategySettings();
+		settings.setStrategyName(strategy);
+		settings.setWeight(weight);
+		config.strategy().addStrategySettings(settings);
+	}
+
+
+	/**
+	 * Statistics of the last iteration; the event counts are reset at the start of every iteration.
+	 */
+	static final class Statistics implements PersonDepartureEventHandler, PersonArrivalEventHandler, PersonStuckEventHandler {
+		private final Map<Id<Person>, Double> departures = new HashMap<>();
+		final Map<String, Integer> legsByMode = new TreeMap<>();
+		final Map<String, Double> modeShares = new TreeMap<>();
+		int persons;
+		int arrivals;
+		int stuck;
+		double travelTime;
+		double averageScore;
+		long runTime;
+
+		double getAverageTravelTime() {
+			return arrivals == 0 ? 0. : travelTime / arrivals;
+		}
+
+		@Override
+		public void handleEvent(PersonDepartureEvent event) {
+			departures.put(event.getPersonId(), event.getTime());
+		}
+
+		@Override
+		public void handleEvent(PersonArrivalEvent event) {
+			Double departure = departures.remove(event.getPersonId());
+			if (departure != null) {
+				travelTime += event.getTime() - departure;
+				arrivals++;
+			}
+		}
+
+		@Override
+		public void handleEvent(PersonStuckEvent event) {
+			departures.remove(event.getPersonId());
+			stuck++;
+		}
+
+		@Override
+		public void reset(int iteration) {
+			departures.clear();
+			arrivals = 0;
+			stuck = 0;
+			travelTime = 0.;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d persons, %d arrivals, %d stuck, average travel time %.1f s, average score %.3f, mode shares %s, run time %d ms",
+					persons, arrivals, stuck, getAverageTravelTime(), averageScore, modeShares, runTime);
+		}
+	}
+}
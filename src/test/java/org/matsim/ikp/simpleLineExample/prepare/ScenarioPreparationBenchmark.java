@@ -0,0 +1,72 @@
+package org.matsim.ikp.simpleLineExample.prepare;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.vehicles.Vehicles;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to create the network of the simple line example and to write the network and vehicles files.
+ *
+ * The simple population has 160 persons in a single partition, too few to measure its generation or output; see
+ * PopulationGenerationBenchmark for populations from timetables and demand files of realistic size.
+ *
+ * Run with: mvn -Pjmh verify -DskipTests -Djmh.includes=ScenarioPreparationBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScenarioPreparationBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Output {
+		Path dir;
+		Network network;
+		Vehicles vehicles;
+
+		@Setup
+		public void setup() throws IOException {
+			dir = Files.createTempDirectory(ScenarioPreparationBenchmark.class.getSimpleName());
+			network = CreateNetwork.createSimpleStationNetwork();
+			vehicles = CreateVehicleTypes.create();
+		}
+
+		@TearDown
+		public void tearDown() {
+			IOUtils.deleteDirectoryRecursively(dir);
+		}
+	}
+
+	@Benchmark
+	public Network createSimpleStationNetwork() {
+		return CreateNetwork.createSimpleStationNetwork();
+	}
+
+	@Benchmark
+	public void writeNetwork(Output output) {
+		CreateNetwork.writeNetwork(output.network, output.dir);
+	}
+
+	@Benchmark
+	public void writeVehiclesFile(Output output) {
+		CreateVehicleTypes.writeVehiclesFile(output.vehicles, output.dir);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(ScenarioPreparationBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
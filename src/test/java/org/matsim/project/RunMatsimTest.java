@@ -22,7 +22,6 @@ import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
-import org.junit.Ignore;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.events.EventsUtils;
@@ -43,13 +42,13 @@ public class RunMatsimTest {
 	
 	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
 
-	@Test @Ignore("OTFVis does not work on build server")
+	@Test
 	public final void test() {
 
 		try {
 			final URL baseUrl = ExamplesUtils.getTestScenarioURL( "equil" );
 			final String fullUrl = IOUtils.extendUrl( baseUrl, "config.xml" ).toString();
-			String [] args = {fullUrl,
+			String [] args = {fullUrl, RunMatsim.HEADLESS,
 				  "--config:controler.outputDirectory", utils.getOutputDirectory(),
 				  "--config:controler.lastIteration", "1"
 			} ;